@@ -0,0 +1,111 @@
+package com.mozartalouis.stockhawk;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.mock.MockContentResolver;
+
+import com.mozartalouis.stockhawk.data.Contract;
+import com.mozartalouis.stockhawk.data.StockProvider;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Context for tests that touch databases or preferences: both are opened under a prefix of
+ * their own and start out empty, so the app's data is left alone and no test sees what an
+ * earlier one left behind. Its content resolver reaches a {@link StockProvider} of its own, on
+ * these databases, rather than the app's.
+ */
+public class TestContext extends ContextWrapper {
+
+    private final String mPrefix;
+    // Preferences emptied so far, each on its first use.
+    private final Set<String> mClearedPreferences = new HashSet<>();
+
+    private MockContentResolver mResolver;
+    private StockProvider mProvider;
+
+    /**
+     * @param prefix Prefix of the databases and preferences, e.g. the test's name
+     */
+    public TestContext(Context base, String prefix) {
+        super(base);
+        this.mPrefix = prefix;
+        for (String name : base.databaseList()) {
+            if (name.startsWith(prefix))
+                base.deleteDatabase(name);
+        }
+    }
+
+    /**
+     * Stops the provider, if one was started.
+     */
+    public synchronized void close() {
+        if (mProvider != null)
+            mProvider.shutdown();
+    }
+
+    @Override
+    public synchronized ContentResolver getContentResolver() {
+        if (mResolver == null) {
+            mProvider = new StockProvider();
+            mProvider.attachInfo(this, null);
+            mResolver = new MockContentResolver();
+            mResolver.addProvider(Contract.AUTHORITY, mProvider);
+        }
+        return mResolver;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences prefs = super.getSharedPreferences(mPrefix + name, mode);
+        synchronized (mClearedPreferences) {
+            if (mClearedPreferences.add(name))
+                prefs.edit().clear().commit();
+        }
+        return prefs;
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                               SQLiteDatabase.CursorFactory factory) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                               SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(mPrefix + name);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(mPrefix + name);
+    }
+
+    @Override
+    public String[] databaseList() {
+        Set<String> names = new HashSet<>();
+        for (String name : super.databaseList()) {
+            if (name.startsWith(mPrefix))
+                names.add(name.substring(mPrefix.length()));
+        }
+        return names.toArray(new String[names.size()]);
+    }
+}
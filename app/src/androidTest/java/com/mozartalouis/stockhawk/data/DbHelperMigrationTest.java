@@ -0,0 +1,372 @@
+package com.mozartalouis.stockhawk.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.mozartalouis.stockhawk.R;
+import com.mozartalouis.stockhawk.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Builds a database as each older version left it, with the schema spelled out here rather than
+ * taken from {@link DbHelper}, opens it with the current {@link DbHelper} and checks that it ends
+ * up with the schema of a fresh install and keeps the rows it had.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbHelperMigrationTest {
+
+    private static final String PREFIX = "migration_test_";
+
+    private static final long MARCH_20 = 1489968000000L;
+    private static final long MARCH_27 = 1490572800000L;
+
+    private Context mContext;
+    private DbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new TestContext(InstrumentationRegistry.getTargetContext(), PREFIX);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null)
+            mHelper.close();
+        mContext.deleteDatabase(DbHelper.NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1() {
+        SQLiteDatabase db = createDatabase(1);
+        db.execSQL("CREATE TABLE quotes (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "symbol TEXT NOT NULL, " +
+                "price REAL NOT NULL, " +
+                "absolute_change REAL NOT NULL, " +
+                "percentage_change REAL NOT NULL, " +
+                "history TEXT NOT NULL, " +
+                "UNIQUE (symbol) ON CONFLICT REPLACE);");
+        // Newest bar first, as Yahoo lists them; the malformed line is dropped.
+        db.execSQL("INSERT INTO quotes VALUES (7, 'AAPL', 140.5, 1.5, 0.0108, ?)", new Object[]{
+                MARCH_27 + ", 140.5\n" + MARCH_20 + ", 139.0\nnot a bar\n"});
+        db.execSQL("INSERT INTO quotes VALUES (9, 'MSFT', 64.5, -0.5, -0.0077, '')");
+        db.close();
+        putLegacyStocks("MSFT", "AAPL", "GOOG");
+
+        SQLiteDatabase upgraded = open();
+        assertSchema(upgraded);
+        assertQuotes(upgraded);
+        assertEquals(Arrays.asList(
+                "AAPL|" + Contract.History.RESOLUTION_WEEKLY + "|" + MARCH_20 + "|139.0",
+                "AAPL|" + Contract.History.RESOLUTION_WEEKLY + "|" + MARCH_27 + "|140.5"),
+                history(upgraded));
+        assertEquals(Arrays.asList("AAPL|0|0", "GOOG|1|0", "MSFT|2|0"), watchlist(upgraded));
+    }
+
+    @Test
+    public void upgradeFromVersion2() {
+        SQLiteDatabase db = createDatabase(2);
+        createQuotes(db);
+        db.execSQL("CREATE TABLE quote_history (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "symbol TEXT NOT NULL, " +
+                "ts INTEGER NOT NULL, " +
+                "close REAL NOT NULL, " +
+                "UNIQUE (symbol, ts) ON CONFLICT REPLACE);");
+        db.execSQL("INSERT INTO quote_history (symbol, ts, close) VALUES ('AAPL', ?, 140.5)",
+                new Object[]{MARCH_27});
+        db.execSQL("INSERT INTO quote_history (symbol, ts, close) VALUES ('AAPL', ?, 139.0)",
+                new Object[]{MARCH_20});
+        db.close();
+        putLegacyStocks("MSFT", "AAPL", "GOOG");
+
+        SQLiteDatabase upgraded = open();
+        assertSchema(upgraded);
+        assertQuotes(upgraded);
+        assertWeeklyHistory(upgraded);
+        assertEquals(Arrays.asList("AAPL|0|0", "GOOG|1|0", "MSFT|2|0"), watchlist(upgraded));
+    }
+
+    @Test
+    public void upgradeFromVersion3() {
+        SQLiteDatabase db = createDatabase(3);
+        createQuotes(db);
+        createClusteredHistory(db);
+        db.close();
+        putLegacyStocks("MSFT", "AAPL", "GOOG");
+
+        SQLiteDatabase upgraded = open();
+        assertSchema(upgraded);
+        assertQuotes(upgraded);
+        assertWeeklyHistory(upgraded);
+        assertEquals(Arrays.asList("AAPL|0|0", "GOOG|1|0", "MSFT|2|0"), watchlist(upgraded));
+    }
+
+    @Test
+    public void upgradeWithoutLegacyStocksSeedsDefaults() {
+        SQLiteDatabase db = createDatabase(3);
+        createQuotes(db);
+        createClusteredHistory(db);
+        db.close();
+
+        SQLiteDatabase upgraded = open();
+        assertSchema(upgraded);
+        List<String> expected = new ArrayList<>();
+        String[] defaults = mContext.getResources().getStringArray(R.array.default_stocks);
+        for (int i = 0; i < defaults.length; i++) {
+            expected.add(defaults[i] + "|" + i + "|0");
+        }
+        assertEquals(expected, watchlist(upgraded));
+    }
+
+    @Test
+    public void upgradeFromVersion4() {
+        SQLiteDatabase db = createDatabase(4);
+        createQuotes(db);
+        createClusteredHistory(db);
+        createWatchlist(db);
+        db.close();
+        // Already imported by version 4, so no longer looked at.
+        putLegacyStocks("GOOG");
+
+        SQLiteDatabase upgraded = open();
+        assertSchema(upgraded);
+        assertQuotes(upgraded);
+        assertWeeklyHistory(upgraded);
+        assertEquals(Arrays.asList("TSLA|0|0", "AAPL|1|1"), watchlist(upgraded));
+    }
+
+    @Test
+    public void upgradeFromVersion5() {
+        SQLiteDatabase db = createDatabase(5);
+        createQuotes(db);
+        db.execSQL("CREATE TABLE quote_history (" +
+                "symbol TEXT NOT NULL, " +
+                "resolution INTEGER NOT NULL DEFAULT 0, " +
+                "ts INTEGER NOT NULL, " +
+                "close REAL NOT NULL, " +
+                "PRIMARY KEY (symbol, resolution, ts) ON CONFLICT REPLACE) WITHOUT ROWID;");
+        // Until version 7, daily bars were stamped with midnight in the device's timezone.
+        db.execSQL("INSERT INTO quote_history VALUES ('AAPL', 0, ?, 140.5)",
+                new Object[]{getLocalMidnight(MARCH_27)});
+        db.execSQL("INSERT INTO quote_history VALUES ('AAPL', 1, ?, 139.0)", new Object[]{MARCH_20});
+        createWatchlist(db);
+        db.close();
+
+        SQLiteDatabase upgraded = open();
+        assertSchema(upgraded);
+        assertQuotes(upgraded);
+        // The daily bar moves to midnight UTC and gets its rollups; the older weekly bar stays.
+        assertEquals(Arrays.asList(
+                "AAPL|" + Contract.History.RESOLUTION_DAILY + "|" + MARCH_27 + "|140.5",
+                "AAPL|" + Contract.History.RESOLUTION_WEEKLY + "|" + MARCH_20 + "|139.0",
+                "AAPL|" + Contract.History.RESOLUTION_WEEKLY + "|" + MARCH_27 + "|140.5",
+                "AAPL|" + Contract.History.RESOLUTION_MONTHLY + "|" + MARCH_27 + "|140.5"),
+                history(upgraded));
+        assertEquals(Arrays.asList("TSLA|0|0", "AAPL|1|1"), watchlist(upgraded));
+    }
+
+    /**
+     * Opens an empty database file, which the current helper will take to be at
+     * {@code version}.
+     */
+    private SQLiteDatabase createDatabase(int version) {
+        File file = mContext.getDatabasePath(DbHelper.NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.setVersion(version);
+        return db;
+    }
+
+    private SQLiteDatabase open() {
+        mHelper = new DbHelper(mContext);
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        assertEquals(DbHelper.VERSION, db.getVersion());
+        return db;
+    }
+
+    /**
+     * @param utcMidnight Midnight UTC of a date
+     * @return Midnight of the same date in the device's timezone.
+     */
+    private static long getLocalMidnight(long utcMidnight) {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(utcMidnight);
+        Calendar local = Calendar.getInstance();
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+        return local.getTimeInMillis();
+    }
+
+    private void putLegacyStocks(String... stocks) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_stocks_initialized_key), true)
+                .putStringSet(mContext.getString(R.string.pref_stocks_key),
+                        new HashSet<>(Arrays.asList(stocks)))
+                .commit();
+    }
+
+    /**
+     * The quotes table of versions 2 to 6.
+     */
+    private static void createQuotes(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE quotes (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "symbol TEXT NOT NULL, " +
+                "price REAL NOT NULL, " +
+                "absolute_change REAL NOT NULL, " +
+                "percentage_change REAL NOT NULL, " +
+                "UNIQUE (symbol) ON CONFLICT REPLACE);");
+        db.execSQL("INSERT INTO quotes VALUES (7, 'AAPL', 140.5, 1.5, 0.0108)");
+        db.execSQL("INSERT INTO quotes VALUES (9, 'MSFT', 64.5, -0.5, -0.0077)");
+    }
+
+    /**
+     * The history table of versions 3 and 4.
+     */
+    private static void createClusteredHistory(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE quote_history (" +
+                "symbol TEXT NOT NULL, " +
+                "ts INTEGER NOT NULL, " +
+                "close REAL NOT NULL, " +
+                "PRIMARY KEY (symbol, ts) ON CONFLICT REPLACE) WITHOUT ROWID;");
+        db.execSQL("INSERT INTO quote_history VALUES ('AAPL', ?, 140.5)", new Object[]{MARCH_27});
+        db.execSQL("INSERT INTO quote_history VALUES ('AAPL', ?, 139.0)", new Object[]{MARCH_20});
+    }
+
+    /**
+     * The watchlist table of versions 4 to 6.
+     */
+    private static void createWatchlist(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE watchlist (" +
+                "symbol TEXT PRIMARY KEY, " +
+                "position INTEGER NOT NULL, " +
+                "added_at INTEGER NOT NULL, " +
+                "priority INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO watchlist VALUES ('TSLA', 0, ?, 0)", new Object[]{MARCH_20});
+        db.execSQL("INSERT INTO watchlist VALUES ('AAPL', 1, ?, 1)", new Object[]{MARCH_27});
+    }
+
+    /**
+     * Compares the upgraded schema, table by table, with the one {@link DbHelper#onCreate}
+     * builds.
+     */
+    private void assertSchema(SQLiteDatabase upgraded) {
+        Context freshContext = new TestContext(mContext, "fresh_");
+        DbHelper fresh = new DbHelper(freshContext);
+        try {
+            assertEquals(describe(fresh.getReadableDatabase()), describe(upgraded));
+        } finally {
+            fresh.close();
+            freshContext.deleteDatabase(DbHelper.NAME);
+        }
+    }
+
+    private static void assertQuotes(SQLiteDatabase db) {
+        assertEquals(Arrays.asList("7|AAPL|140.5|1.5|0.0108", "9|MSFT|64.5|-0.5|-0.0077"),
+                rows(db, "SELECT _id, symbol, price, absolute_change, percentage_change " +
+                        "FROM quotes ORDER BY _id"));
+    }
+
+    /**
+     * Bars stored before version 5 were weekly ones.
+     */
+    private static void assertWeeklyHistory(SQLiteDatabase db) {
+        assertEquals(Arrays.asList(
+                "AAPL|" + Contract.History.RESOLUTION_WEEKLY + "|" + MARCH_20 + "|139.0",
+                "AAPL|" + Contract.History.RESOLUTION_WEEKLY + "|" + MARCH_27 + "|140.5"),
+                history(db));
+    }
+
+    private static List<String> history(SQLiteDatabase db) {
+        return rows(db, "SELECT symbol, resolution, ts, close FROM quote_history " +
+                "ORDER BY symbol, resolution, ts");
+    }
+
+    private static List<String> watchlist(SQLiteDatabase db) {
+        return rows(db, "SELECT symbol, position, priority FROM watchlist ORDER BY position");
+    }
+
+    /**
+     * @return Per table, its columns with their type, constraints and default, whether it has a
+     * rowid, and its unique indexes.
+     */
+    private static Map<String, List<String>> describe(SQLiteDatabase db) {
+        Map<String, List<String>> tables = new TreeMap<>();
+        Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'table' " +
+                "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                final String table = cursor.getString(0);
+                List<String> description = new ArrayList<>();
+                // name|type|notnull|dflt_value|pk
+                for (String column : rows(db, "PRAGMA table_info(" + table + ")")) {
+                    description.add(column.substring(column.indexOf('|') + 1));
+                }
+                description.add("without rowid: " + cursor.getString(1).contains("WITHOUT ROWID"));
+
+                List<String> indexes = new ArrayList<>();
+                Cursor indexList = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+                try {
+                    final int name = indexList.getColumnIndex("name");
+                    final int unique = indexList.getColumnIndex("unique");
+                    while (indexList.moveToNext()) {
+                        indexes.add("index unique=" + indexList.getInt(unique) + " on "
+                                + rows(db, "PRAGMA index_info(" + indexList.getString(name) + ")"));
+                    }
+                } finally {
+                    indexList.close();
+                }
+                Collections.sort(indexes);
+                description.addAll(indexes);
+                tables.put(table, description);
+            }
+        } finally {
+            cursor.close();
+        }
+        return tables;
+    }
+
+    /**
+     * @return Each row as its values joined by {@code |}.
+     */
+    private static List<String> rows(SQLiteDatabase db, String sql) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    if (i > 0)
+                        row.append('|');
+                    row.append(cursor.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,375 @@
+package com.mozartalouis.stockhawk.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the two Yahoo Finance CSV endpoints the sync talks to, so that
+ * {@link YahooQuoteSource} can be driven end to end without the live service. Every request
+ * waits a scripted latency, may be turned away when more requests per second come in than
+ * allowed, and otherwise fails with a given probability; the random draws are seeded so that a
+ * run can be repeated.
+ * <p>
+ * Quotes and histories are made up from the symbol, the same symbol always getting the same
+ * numbers. Symbols starting with {@link #UNKNOWN_PREFIX} are answered the way Yahoo answers
+ * symbols that do not exist.
+ */
+final class QuoteServerStandIn {
+
+    static final String QUOTES_PATH = "/d/quotes.csv";
+    static final String HISTORY_PATH = "/table.csv";
+    static final String UNKNOWN_PREFIX = "ZZ";
+
+    // What Yahoo answers a client asking too often.
+    private static final int STATUS_THROTTLED = 999;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final long mLatencyMillis;
+    private final long mJitterMillis;
+    private final double mErrorRate;
+    private final int mMaxRequestsPerSecond;
+    private final Random mRandom;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicInteger mThrottled = new AtomicInteger();
+
+    // Requests let through in the current one second window, see isThrottled.
+    private long mWindowStart;
+    private int mWindowRequests;
+
+    private ServerSocket mSocket;
+    private ExecutorService mExecutor;
+
+    /**
+     * @param latencyMillis        Delay added to every request
+     * @param jitterMillis         Up to this much more delay, drawn per request
+     * @param errorRate            Probability, from 0 to 1, that a request fails with a 500
+     * @param maxRequestsPerSecond Requests let through per second, the others getting a 999, or
+     *                             0 for no limit
+     * @param seed                 Seed for the latency and error draws
+     */
+    QuoteServerStandIn(long latencyMillis, long jitterMillis, double errorRate,
+                       int maxRequestsPerSecond, long seed) {
+        this.mLatencyMillis = latencyMillis;
+        this.mJitterMillis = jitterMillis;
+        this.mErrorRate = errorRate;
+        this.mMaxRequestsPerSecond = maxRequestsPerSecond;
+        this.mRandom = new Random(seed);
+    }
+
+    /**
+     * Starts serving on the loopback interface.
+     *
+     * @param port Port to listen on, or 0 for any free one
+     */
+    void start(int port) throws IOException {
+        mSocket = new ServerSocket();
+        mSocket.setReuseAddress(true);
+        mSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+        mExecutor = Executors.newCachedThreadPool();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    void stop() {
+        try {
+            mSocket.close();
+        } catch (IOException ignored) {
+        }
+        mExecutor.shutdownNow();
+    }
+
+    int getPort() {
+        return mSocket.getLocalPort();
+    }
+
+    String getQuotesUrl() {
+        return "http://127.0.0.1:" + getPort() + QUOTES_PATH;
+    }
+
+    String getHistoryUrl() {
+        return "http://127.0.0.1:" + getPort() + HISTORY_PATH;
+    }
+
+    int getRequests() {
+        return mRequests.get();
+    }
+
+    int getErrors() {
+        return mErrors.get();
+    }
+
+    int getThrottled() {
+        return mThrottled.get();
+    }
+
+    private void accept() {
+        while (!mSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mSocket.accept();
+            } catch (SocketException e) {
+                // Closed by stop.
+                return;
+            } catch (IOException e) {
+                continue;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                        // The client gave up on the request.
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), CHARSET));
+        String requestLine = reader.readLine();
+        if (requestLine == null)
+            return;
+        // Skip the headers, nothing in them matters here.
+        String header = reader.readLine();
+        while (header != null && !header.isEmpty()) {
+            header = reader.readLine();
+        }
+
+        mRequests.incrementAndGet();
+        OutputStream out = socket.getOutputStream();
+        if (isThrottled()) {
+            mThrottled.incrementAndGet();
+            respond(out, STATUS_THROTTLED, "Request denied", "");
+            return;
+        }
+
+        Thread.sleep(drawLatency());
+        if (drawError()) {
+            mErrors.incrementAndGet();
+            respond(out, 500, "Internal Server Error", "");
+            return;
+        }
+
+        // GET /path?query HTTP/1.1
+        String[] parts = requestLine.split(" ");
+        String target = parts.length > 1 ? parts[1] : "/";
+        int queryStart = target.indexOf('?');
+        String path = queryStart < 0 ? target : target.substring(0, queryStart);
+        Map<String, String> query = parseQuery(queryStart < 0 ? "" : target.substring(queryStart + 1));
+
+        if (QUOTES_PATH.equals(path)) {
+            respond(out, 200, "OK", quotes(query.get("s"), query.get("f")));
+        } else if (HISTORY_PATH.equals(path)) {
+            String symbol = query.get("s");
+            if (symbol == null || symbol.startsWith(UNKNOWN_PREFIX)) {
+                respond(out, 404, "Not Found", "");
+            } else {
+                respond(out, 200, "OK", history(symbol, query));
+            }
+        } else {
+            respond(out, 404, "Not Found", "");
+        }
+    }
+
+    /**
+     * Counts the request against the current one second window.
+     *
+     * @return Whether the window is already full.
+     */
+    private synchronized boolean isThrottled() {
+        if (mMaxRequestsPerSecond <= 0)
+            return false;
+
+        final long now = System.currentTimeMillis();
+        if (now - mWindowStart >= 1000) {
+            mWindowStart = now;
+            mWindowRequests = 0;
+        }
+        return ++mWindowRequests > mMaxRequestsPerSecond;
+    }
+
+    private synchronized long drawLatency() {
+        return mLatencyMillis + (mJitterMillis > 0 ? (long) (mRandom.nextDouble() * mJitterMillis) : 0);
+    }
+
+    private synchronized boolean drawError() {
+        return mRandom.nextDouble() < mErrorRate;
+    }
+
+    /**
+     * One CSV line per symbol, with the requested fields in order. Only the symbol, name, last
+     * price and previous close are filled in, which is all a quote needs; the rest are
+     * {@code N/A}, as are all fields of an unknown symbol.
+     *
+     * @param symbols Symbols as sent, separated by commas
+     * @param fields  Yahoo field tags, e.g. {@code snl1p}
+     */
+    private static String quotes(String symbols, String fields) {
+        if (symbols == null || fields == null)
+            return "";
+
+        StringBuilder body = new StringBuilder();
+        for (String symbol : symbols.split("[, ]+")) {
+            if (symbol.isEmpty())
+                continue;
+
+            final boolean unknown = symbol.startsWith(UNKNOWN_PREFIX);
+            final Random random = new Random(symbol.hashCode());
+            final float previousClose = 5 + random.nextInt(50000) / 100f;
+            final float price = previousClose * (0.95f + random.nextFloat() / 10);
+
+            int i = 0;
+            boolean first = true;
+            while (i < fields.length()) {
+                // A tag is a letter, possibly followed by digits.
+                int end = i + 1;
+                while (end < fields.length() && Character.isDigit(fields.charAt(end))) {
+                    end++;
+                }
+                String tag = fields.substring(i, end);
+                i = end;
+
+                if (!first)
+                    body.append(',');
+                first = false;
+
+                if (tag.equals("s")) {
+                    body.append('"').append(symbol).append('"');
+                } else if (unknown) {
+                    body.append("N/A");
+                } else if (tag.equals("n")) {
+                    body.append('"').append(symbol).append(" Inc.\"");
+                } else if (tag.equals("l1")) {
+                    body.append(format(price));
+                } else if (tag.equals("p") || tag.equals("o")) {
+                    body.append(format(previousClose));
+                } else {
+                    body.append("N/A");
+                }
+            }
+            body.append('\n');
+        }
+        return body.toString();
+    }
+
+    /**
+     * Daily bars on weekdays between the requested dates, newest first as Yahoo lists them.
+     *
+     * @param query The range: {@code a}, {@code b}, {@code c} are the month (from 0), day and
+     *              year it starts, {@code d}, {@code e}, {@code f} the ones it ends
+     */
+    private static String history(String symbol, Map<String, String> query) {
+        Calendar from = date(query.get("c"), query.get("a"), query.get("b"));
+        Calendar to = date(query.get("f"), query.get("d"), query.get("e"));
+
+        StringBuilder body = new StringBuilder("Date,Open,High,Low,Close,Volume,Adj Close\n");
+        if (from == null || to == null)
+            return body.toString();
+
+        // The same symbol and day always close at the same price, whatever the range asked.
+        final Random symbolRandom = new Random(symbol.hashCode());
+        final float base = 5 + symbolRandom.nextInt(50000) / 100f;
+
+        Calendar day = (Calendar) to.clone();
+        while (!day.before(from)) {
+            final int weekday = day.get(Calendar.DAY_OF_WEEK);
+            if (weekday != Calendar.SATURDAY && weekday != Calendar.SUNDAY) {
+                final long dayIndex = day.getTimeInMillis() / DAY_MILLIS;
+                // Spread the seeds apart, neighbouring seeds start out on similar draws.
+                final Random random = new Random(dayIndex * 0x9E3779B97F4A7C15L ^ symbol.hashCode());
+                final float close = base * (0.8f + random.nextFloat() * 0.4f);
+                final String value = format(close);
+                body.append(String.format(Locale.US, "%04d-%02d-%02d",
+                        day.get(Calendar.YEAR), day.get(Calendar.MONTH) + 1,
+                        day.get(Calendar.DAY_OF_MONTH)))
+                        .append(',').append(value)
+                        .append(',').append(value)
+                        .append(',').append(value)
+                        .append(',').append(value)
+                        .append(',').append(1000 + random.nextInt(1000000))
+                        .append(',').append(value)
+                        .append('\n');
+            }
+            day.add(Calendar.DAY_OF_MONTH, -1);
+        }
+        return body.toString();
+    }
+
+    private static Calendar date(String year, String month, String day) {
+        if (year == null || month == null || day == null)
+            return null;
+        try {
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            calendar.clear();
+            calendar.set(Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day));
+            return calendar;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String format(float value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        for (String param : query.split("&")) {
+            int split = param.indexOf('=');
+            if (split <= 0)
+                continue;
+            params.put(URLDecoder.decode(param.substring(0, split), "UTF-8"),
+                    URLDecoder.decode(param.substring(split + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private static void respond(OutputStream out, int status, String reason, String body)
+            throws IOException {
+        byte[] content = body.getBytes(CHARSET);
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n" +
+                "Content-Type: text/csv\r\n" +
+                "Content-Length: " + content.length + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        out.write(head.getBytes(CHARSET));
+        out.write(content);
+        out.flush();
+    }
+}
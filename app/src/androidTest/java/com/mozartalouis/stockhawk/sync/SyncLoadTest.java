@@ -0,0 +1,330 @@
+package com.mozartalouis.stockhawk.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.mozartalouis.stockhawk.TestContext;
+import com.mozartalouis.stockhawk.data.Contract;
+import com.mozartalouis.stockhawk.utils.WatchlistUtils;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Load gate for the sync: runs the real {@link QuoteSyncJob#getQuotes} over a watchlist of made
+ * up stocks, through a {@link com.mozartalouis.stockhawk.data.StockProvider} on a database of
+ * its own, and fails when the time recorded for a phase, or the peak heap, goes over its
+ * budget.
+ * <p>
+ * The market data is recorded once per run: a first sync goes through {@link YahooQuoteSource}
+ * to a {@link QuoteServerStandIn}, which also checks the parsing of the CSV endpoints, and is
+ * saved by a {@link RecordingQuoteSource}. The measured sync then replays it from a
+ * {@link ReplayQuoteSource}, with a fixed latency and seeded failures, so its timings do not
+ * depend on the network.
+ * <p>
+ * The defaults can be changed with instrumentation arguments, e.g.
+ * <pre>
+ *   adb shell am instrument -w -e class com.mozartalouis.stockhawk.sync.SyncLoadTest \
+ *       -e symbols 2000 -e latency 200 -e error_rate 0.05 -e budget_sync 90000 \
+ *       com.mozartalouis.stockhawk.test/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ * where {@code budget_<phase>} is the most milliseconds the phase may record in total; phases
+ * without a budget, by default the requests made in parallel, are only reported. The report
+ * goes to the log, tag {@code SyncLoadTest}.
+ *
+ * @see Contract.Metric
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncLoadTest {
+
+    private static final String TAG = SyncLoadTest.class.getSimpleName();
+    private static final String RECORDING_DIRECTORY = "sync_load_test_recording";
+
+    private static final String ARG_SYMBOLS = "symbols";
+    private static final String ARG_UNKNOWN = "unknown";
+    private static final String ARG_LATENCY = "latency";
+    private static final String ARG_ERROR_RATE = "error_rate";
+    private static final String ARG_SEED = "seed";
+    private static final String ARG_BUDGET_PREFIX = "budget_";
+    private static final String ARG_BUDGET_HEAP = "budget_heap_mb";
+
+    private static final Map<String, Long> DEFAULT_BUDGETS = new HashMap<>();
+
+    static {
+        DEFAULT_BUDGETS.put(Contract.Metric.PHASE_SYNC, 60000L);
+        DEFAULT_BUDGETS.put(Contract.Metric.PHASE_ENCODE, 10000L);
+        DEFAULT_BUDGETS.put(Contract.Metric.PHASE_WRITE, 10000L);
+        DEFAULT_BUDGETS.put(Contract.Metric.PHASE_WIDGET, 1000L);
+    }
+
+    private static final long DEFAULT_HEAP_BUDGET_MB = 64;
+    private static final long HEAP_SAMPLE_MILLIS = 10;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static Bundle sArguments;
+    private static File sRecording;
+    private static int sSymbols;
+    private static int sUnknown;
+
+    /**
+     * Records the market data of the watchlist, syncing it once against the stand-in.
+     */
+    @BeforeClass
+    public static void record() throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        sArguments = InstrumentationRegistry.getArguments();
+        sSymbols = (int) getLong(ARG_SYMBOLS, 1000);
+        sUnknown = (int) getLong(ARG_UNKNOWN, 10);
+        sRecording = new File(context.getCacheDir(), RECORDING_DIRECTORY);
+        delete(sRecording);
+
+        QuoteServerStandIn server = new QuoteServerStandIn(0, 0, 0, 0, 1);
+        server.start(0);
+        // Yahoo Finance reads these once, when first used in the process.
+        System.setProperty("yahoofinance.baseurl.quotes", server.getQuotesUrl());
+        System.setProperty("yahoofinance.baseurl.histquotes", server.getHistoryUrl());
+        QuoteSyncJob.setQuoteSource(new RecordingQuoteSource(new YahooQuoteSource(), sRecording));
+
+        TestContext recordingContext = new TestContext(context, "sync_load_test_recording_");
+        try {
+            fillWatchlist(recordingContext);
+            Map<String, SymbolStatus> statuses = QuoteSyncJob.getQuotes(recordingContext);
+            assertTrue("Yahoo Finance was set up before it could be pointed at the stand-in",
+                    server.getRequests() > 0);
+            for (Map.Entry<String, SymbolStatus> status : statuses.entrySet()) {
+                assertEquals(status.getKey(), isUnknown(status.getKey())
+                        ? SymbolStatus.UNKNOWN : SymbolStatus.OK, status.getValue());
+            }
+        } finally {
+            recordingContext.close();
+            server.stop();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        QuoteSyncJob.setQuoteSource(new YahooQuoteSource());
+        delete(sRecording);
+    }
+
+    @Test
+    public void syncStaysWithinBudget() throws Exception {
+        QuoteSyncJob.setQuoteSource(new ReplayQuoteSource(sRecording,
+                getLong(ARG_LATENCY, 100),
+                Double.parseDouble(sArguments.getString(ARG_ERROR_RATE, "0.02")),
+                getLong(ARG_SEED, 1)));
+
+        TestContext context = new TestContext(InstrumentationRegistry.getTargetContext(),
+                "sync_load_test_");
+        try {
+            fillWatchlist(context);
+
+            HeapSampler heap = new HeapSampler();
+            heap.start();
+            final long start = SystemClock.elapsedRealtime();
+            Map<String, SymbolStatus> statuses = QuoteSyncJob.getQuotes(context);
+            final long total = SystemClock.elapsedRealtime() - start;
+            heap.interrupt();
+            heap.join();
+
+            final Map<String, long[]> phases = getPhases(context);
+            final long peakHeapMb = heap.getPeak() / MEGABYTE;
+            final String report = report(context, statuses, phases, total, peakHeapMb);
+            for (String line : report.split("\n")) {
+                Log.i(TAG, line);
+            }
+
+            // A failed quote request leaves its stocks as they were, whether they exist or not,
+            // and a failed history request leaves its stock stale.
+            int written = 0;
+            for (Map.Entry<String, SymbolStatus> status : statuses.entrySet()) {
+                final SymbolStatus value = status.getValue();
+                if (value == SymbolStatus.TRANSIENT_ERROR)
+                    continue;
+                if (isUnknown(status.getKey())) {
+                    assertEquals(status.getKey(), SymbolStatus.UNKNOWN, value);
+                } else {
+                    assertTrue(status.getKey() + " " + value,
+                            value == SymbolStatus.OK || value == SymbolStatus.STALE);
+                    written++;
+                }
+            }
+            assertTrue(report, written > 0);
+            assertEquals(report, written, count(context));
+
+            for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+                final long budget = getBudget(phase.getKey());
+                if (budget > 0 && phase.getValue()[0] > budget)
+                    fail("Phase " + phase.getKey() + " took " + phase.getValue()[0]
+                            + " ms, over its budget of " + budget + " ms\n" + report);
+            }
+            final long heapBudget = getLong(ARG_BUDGET_HEAP, DEFAULT_HEAP_BUDGET_MB);
+            if (heapBudget > 0 && peakHeapMb > heapBudget)
+                fail("Peak heap was " + peakHeapMb + " MB, over its budget of " + heapBudget
+                        + " MB\n" + report);
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Replaces the watchlist with {@link #sSymbols} made up stocks, {@link #sUnknown} of which,
+     * spread evenly, do not exist.
+     */
+    private static void fillWatchlist(Context context) {
+        for (String symbol : WatchlistUtils.getStocks(context)) {
+            WatchlistUtils.removeStock(context, symbol);
+        }
+
+        final int step = sUnknown > 0 ? Math.max(1, sSymbols / sUnknown) : 0;
+        int added = 0;
+        for (int i = 0; i < sSymbols; i++) {
+            if (step > 0 && i % step == 0 && added < sUnknown) {
+                WatchlistUtils.addStock(context,
+                        String.format(Locale.US, QuoteServerStandIn.UNKNOWN_PREFIX + "%04d", i));
+                added++;
+            } else {
+                WatchlistUtils.addStock(context, String.format(Locale.US, "S%04d", i));
+            }
+        }
+    }
+
+    private static boolean isUnknown(String symbol) {
+        return symbol.startsWith(QuoteServerStandIn.UNKNOWN_PREFIX);
+    }
+
+    /**
+     * @return Per phase, the milliseconds recorded in total, the number of records and their
+     * errors.
+     */
+    private static Map<String, long[]> getPhases(Context context) {
+        Map<String, long[]> phases = new TreeMap<>();
+        Cursor cursor = context.getContentResolver().query(Contract.Metric.uri,
+                Contract.Metric.METRIC_COLUMNS, null, null, null);
+        if (cursor == null)
+            return phases;
+        try {
+            while (cursor.moveToNext()) {
+                final String phase = cursor.getString(Contract.Metric.POSITION_PHASE);
+                long[] sums = phases.get(phase);
+                if (sums == null) {
+                    sums = new long[3];
+                    phases.put(phase, sums);
+                }
+                sums[0] += cursor.getLong(Contract.Metric.POSITION_DURATION);
+                sums[1]++;
+                sums[2] += cursor.getLong(Contract.Metric.POSITION_ERRORS);
+            }
+        } finally {
+            cursor.close();
+        }
+        return phases;
+    }
+
+    /**
+     * @return The budget of a phase in milliseconds, or 0 if it has none.
+     */
+    private static long getBudget(String phase) {
+        final Long budget = DEFAULT_BUDGETS.get(phase);
+        return getLong(ARG_BUDGET_PREFIX + phase, budget != null ? budget : 0);
+    }
+
+    private static String report(Context context, Map<String, SymbolStatus> statuses,
+                                 Map<String, long[]> phases, long total, long peakHeapMb) {
+        Map<SymbolStatus, Integer> counts = new EnumMap<>(SymbolStatus.class);
+        for (SymbolStatus status : statuses.values()) {
+            Integer count = counts.get(status);
+            counts.put(status, count == null ? 1 : count + 1);
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "symbols: %d (%d unknown)\n", sSymbols, sUnknown))
+                .append(String.format(Locale.US, "total: %d ms\n", total))
+                .append(String.format(Locale.US, "peak heap: %d MB\n", peakHeapMb))
+                .append(String.format(Locale.US, "quotes written: %d\n", count(context)))
+                .append("statuses: ").append(counts).append('\n');
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            final long[] sums = phase.getValue();
+            report.append(String.format(Locale.US, "phase %s: %d ms over %d, %d errors\n",
+                    phase.getKey(), sums[0], sums[1], sums[2]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return The number of stored quotes.
+     */
+    private static int count(Context context) {
+        Cursor cursor = context.getContentResolver().query(Contract.Quote.uri, null, null, null, null);
+        if (cursor == null)
+            return 0;
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long getLong(String key, long defaultValue) {
+        final String value = sArguments.getString(key);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Samples the used heap every {@link #HEAP_SAMPLE_MILLIS} until interrupted.
+     */
+    private static final class HeapSampler extends Thread {
+
+        private volatile long mPeak;
+
+        HeapSampler() {
+            super(TAG + "Heap");
+        }
+
+        long getPeak() {
+            return mPeak;
+        }
+
+        @Override
+        public void run() {
+            final Runtime runtime = Runtime.getRuntime();
+            while (!isInterrupted()) {
+                mPeak = Math.max(mPeak, runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,44 @@
 package com.mozartalouis.stockhawk;
 
 import android.app.Application;
+import android.content.res.Resources;
+import android.net.http.HttpResponseCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
 
 public class StockHawkApp extends Application {
 
+    private static final String TAG = StockHawkApp.class.getSimpleName();
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+
     @Override
     public void onCreate() {
         super.onCreate();
+        installHttpCache();
+    }
+
+    /**
+     * Yahoo Finance makes its requests through {@link java.net.HttpURLConnection}, which on
+     * Android is backed by a pooled, gzip-aware client; the settings here apply to it for the
+     * whole process. The response cache stores what the server allows to be stored and
+     * revalidates it with conditional requests, so a repeated history request costs a
+     * {@code 304} rather than the whole series. The pool keeps one connection per sync thread
+     * alive between requests.
+     */
+    private void installHttpCache() {
+        final Resources resources = getResources();
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(
+                resources.getInteger(R.integer.sync_quote_threads)
+                        + resources.getInteger(R.integer.sync_history_threads)));
+
+        try {
+            HttpResponseCache.install(new File(getCacheDir(), HTTP_CACHE_DIRECTORY),
+                    resources.getInteger(R.integer.http_cache_size));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not install the HTTP response cache", e);
+        }
     }
 }
@@ -2,7 +2,11 @@ package com.mozartalouis.stockhawk.adapters;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -11,51 +15,105 @@ import android.widget.TextView;
 
 import com.mozartalouis.stockhawk.R;
 import com.mozartalouis.stockhawk.data.Contract;
+import com.mozartalouis.stockhawk.models.QuoteModel;
 import com.mozartalouis.stockhawk.utils.PrefUtils;
+import com.mozartalouis.stockhawk.utils.QuoteFormatter;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
 @SuppressLint("StringFormatInvalid")
-public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
+public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder>
+        implements SharedPreferences.OnSharedPreferenceChangeListener {
 
     // Context
     final private Context mContext;
 
-    // Formats for the stock increase and decrease
-    final private DecimalFormat mDollarFormat, mPercentageFormat;
+    // Formats for the stock increase and decrease. Only used by the diff task, off the main thread.
+    final private QuoteFormatter mFormatter;
+
+    // Display mode preference, kept in sync by onSharedPreferenceChanged.
+    final private String mDisplayModeKey, mAbsoluteKey;
+    private boolean mShowAbsolute;
 
     // Interface for the main activity when a view is clicked.
     final private StockAdapterOnClickHandler mClickHandler;
 
     /**
-     * A cursor that contains relevant stock data for the list.
+     * The rows on screen. Never modified in place, a new list replaces it once its diff against
+     * this one has been dispatched.
      */
-    private Cursor mCursor;
+    private List<Row> mRows = Collections.emptyList();
+
+    /**
+     * Bumped for every new snapshot, so that a diff finishing after a newer one was requested is
+     * dropped instead of applied.
+     */
+    private int mGeneration;
 
     public StockAdapter(Context context, StockAdapterOnClickHandler clickHandler) {
         this.mContext = context;
         this.mClickHandler = clickHandler;
 
-        this.mDollarFormat = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.getDefault());
-        this.mDollarFormat.setMaximumFractionDigits(2);
+        // Accessibility templates, resolved once instead of per bind.
+        this.mFormatter = new QuoteFormatter(Locale.getDefault(),
+                context.getString(R.string.accessibility_stock_price),
+                context.getString(R.string.accessibility_stock_increment),
+                context.getString(R.string.accessibility_stock_decrement));
+
+        this.mDisplayModeKey = context.getString(R.string.pref_display_mode_key);
+        this.mAbsoluteKey = context.getString(R.string.pref_display_mode_absolute_key);
+        this.mShowAbsolute = PrefUtils.getDisplayMode(context).equals(mAbsoluteKey);
 
-        this.mPercentageFormat = (DecimalFormat) NumberFormat.getPercentInstance(Locale.getDefault());
-        this.mPercentageFormat.setMinimumFractionDigits(2);
+        setHasStableIds(true);
     }
 
+    /**
+     * Takes a snapshot of the cursor and updates the list with only the rows that were inserted,
+     * removed, moved or changed since the last one. The diff runs in the background.
+     *
+     * @param cursor Quotes to show, or {@code null} to clear the list
+     */
     public void setCursor(Cursor cursor) {
-        notifyDataSetChanged();
-        this.mCursor = cursor;
+        final int count = cursor == null ? 0 : cursor.getCount();
+        final long[] ids = new long[count];
+        final List<QuoteModel> quotes = new ArrayList<>(count);
+
+        if (cursor != null && cursor.moveToFirst()) {
+            do {
+                ids[quotes.size()] = cursor.getLong(Contract.Quote.POSITION_ID);
+                quotes.add(new QuoteModel(
+                        cursor.getString(Contract.Quote.POSITION_SYMBOL),
+                        cursor.getFloat(Contract.Quote.POSITION_PRICE),
+                        cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE),
+                        cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE)));
+            } while (cursor.moveToNext());
+        }
+
+        new DiffTask(++mGeneration, mRows, ids, quotes).execute();
     }
 
     public String getSymbolAtPosition(int position) {
-        mCursor.moveToPosition(position);
-        return mCursor.getString(Contract.Quote.POSITION_SYMBOL);
+        return mRows.get(position).quote.getSymbol();
+    }
+
+    /**
+     * Drops a row right away, e.g. when the user swipes it off, without waiting for the next
+     * snapshot to catch up.
+     */
+    public void removeAtPosition(int position) {
+        List<Row> rows = new ArrayList<>(mRows);
+        rows.remove(position);
+        mRows = Collections.unmodifiableList(rows);
+        ++mGeneration;
+        notifyItemRemoved(position);
     }
 
     @Override
@@ -66,45 +124,65 @@ public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHol
 
     @Override
     public void onBindViewHolder(StockViewHolder holder, int position) {
-        mCursor.moveToPosition(position);
+        final Row row = mRows.get(position);
 
         // Set name
-        holder.symbol.setText(mCursor.getString(Contract.Quote.POSITION_SYMBOL));
+        holder.symbol.setText(row.quote.getSymbol());
 
         // Set stock price for stock with content description for accessibility.
-        holder.price.setText(mDollarFormat.format(mCursor.getFloat(Contract.Quote.POSITION_PRICE)));
-        holder.price.setContentDescription(
-                String.format(mContext.getString(R.string.accessibility_stock_price), holder.price.getText()));
-
-        // Set the correct display mode for the change type.
-        if (PrefUtils.getDisplayMode(mContext).equals
-                (mContext.getString(R.string.pref_display_mode_absolute_key))) {
-            holder.change.setText(mDollarFormat.format
-                    (mCursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE)));
-        } else {
-            holder.change.setText(mPercentageFormat.format
-                    (mCursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE) / 100));
-        }
+        holder.price.setText(row.priceText);
+        holder.price.setContentDescription(row.priceDescription);
 
-        // Change the color and content description based on where the change was positive or
-        // negative.
-        if (mCursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE) >= 0) {
-            holder.change.setBackgroundResource(R.drawable.percent_change_pill_green);
-            holder.change.setContentDescription(String.format
-                    (mContext.getString(R.string.accessibility_stock_increment), holder.change.getText()));
+        // Set the correct display mode for the change type, with its content description.
+        if (mShowAbsolute) {
+            holder.change.setText(row.absoluteText);
+            holder.change.setContentDescription(row.absoluteDescription);
         } else {
-            holder.change.setBackgroundResource(R.drawable.percent_change_pill_red);
-            holder.change.setContentDescription(String.format
-                    (mContext.getString(R.string.accessibility_stock_decrement), holder.change.getText()));
+            holder.change.setText(row.percentageText);
+            holder.change.setContentDescription(row.percentageDescription);
         }
+
+        // Change the color based on where the change was positive or negative.
+        holder.change.setBackgroundResource(row.quote.getAbsoluteChange() >= 0
+                ? R.drawable.percent_change_pill_green
+                : R.drawable.percent_change_pill_red);
     }
 
     @Override
     public int getItemCount() {
-        if (mCursor != null) {
-            return mCursor.getCount();
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).id;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        PreferenceManager.getDefaultSharedPreferences(mContext)
+                .registerOnSharedPreferenceChangeListener(this);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        PreferenceManager.getDefaultSharedPreferences(mContext)
+                .unregisterOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * {@link SharedPreferences.OnSharedPreferenceChangeListener}
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (!mDisplayModeKey.equals(key))
+            return;
+
+        final boolean showAbsolute = PrefUtils.getDisplayMode(mContext).equals(mAbsoluteKey);
+        if (showAbsolute != mShowAbsolute) {
+            mShowAbsolute = showAbsolute;
+            notifyItemRangeChanged(0, getItemCount());
         }
-        return 0;
     }
 
     /**
@@ -114,6 +192,130 @@ public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHol
         void onStockClick(String symbol);
     }
 
+    /**
+     * One stock as shown in the list, keyed by its symbol, with its text already formatted for
+     * both display modes.
+     */
+    private static final class Row {
+        final long id;
+        final QuoteModel quote;
+        final String priceText, priceDescription;
+        final String absoluteText, absoluteDescription;
+        final String percentageText, percentageDescription;
+
+        Row(long id, QuoteModel quote,
+            String priceText, String priceDescription,
+            String absoluteText, String absoluteDescription,
+            String percentageText, String percentageDescription) {
+            this.id = id;
+            this.quote = quote;
+            this.priceText = priceText;
+            this.priceDescription = priceDescription;
+            this.absoluteText = absoluteText;
+            this.absoluteDescription = absoluteDescription;
+            this.percentageText = percentageText;
+            this.percentageDescription = percentageDescription;
+        }
+
+        boolean isSameStock(Row other) {
+            return quote.getSymbol().equals(other.quote.getSymbol());
+        }
+
+        boolean hasSameContents(Row other) {
+            return hasContents(other.id, other.quote);
+        }
+
+        boolean hasContents(long id, QuoteModel quote) {
+            return this.id == id
+                    && Float.compare(this.quote.getPrice(), quote.getPrice()) == 0
+                    && Float.compare(this.quote.getAbsoluteChange(), quote.getAbsoluteChange()) == 0
+                    && Float.compare(this.quote.getPercentageChange(), quote.getPercentageChange()) == 0;
+        }
+    }
+
+    /**
+     * Formats the new snapshot and diffs it against the old one off the main thread, then applies
+     * it when done. Rows whose quote did not change are carried over with their text as is.
+     * <p>
+     * Tasks run on the serial executor, so the formatter is never used by two threads at once.
+     */
+    private class DiffTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+
+        private final int mTaskGeneration;
+        private final List<Row> mOldRows;
+        private final long[] mIds;
+        private final List<QuoteModel> mQuotes;
+        private List<Row> mNewRows;
+
+        DiffTask(int generation, List<Row> oldRows, long[] ids, List<QuoteModel> quotes) {
+            this.mTaskGeneration = generation;
+            this.mOldRows = oldRows;
+            this.mIds = ids;
+            this.mQuotes = quotes;
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... params) {
+            final Map<String, Row> oldRowsBySymbol = new HashMap<>(mOldRows.size() * 2);
+            for (Row row : mOldRows) {
+                oldRowsBySymbol.put(row.quote.getSymbol(), row);
+            }
+
+            final List<Row> newRows = new ArrayList<>(mQuotes.size());
+            for (int i = 0; i < mQuotes.size(); i++) {
+                final QuoteModel quote = mQuotes.get(i);
+                final Row oldRow = oldRowsBySymbol.get(quote.getSymbol());
+                newRows.add(oldRow != null && oldRow.hasContents(mIds[i], quote)
+                        ? oldRow
+                        : format(mIds[i], quote));
+            }
+            mNewRows = Collections.unmodifiableList(newRows);
+
+            return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return mOldRows.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return mNewRows.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return mOldRows.get(oldPosition).isSameStock(mNewRows.get(newPosition));
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    return mOldRows.get(oldPosition).hasSameContents(mNewRows.get(newPosition));
+                }
+            });
+        }
+
+        private Row format(long id, QuoteModel quote) {
+            final String price = mFormatter.formatPrice(quote);
+            final String absolute = mFormatter.formatAbsoluteChange(quote);
+            final String percentage = mFormatter.formatPercentageChange(quote);
+
+            return new Row(id, quote,
+                    price, mFormatter.describePrice(price),
+                    absolute, mFormatter.describeChange(quote, absolute),
+                    percentage, mFormatter.describeChange(quote, percentage));
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult result) {
+            // A newer snapshot, or a local removal, superseded this one; its own diff applies.
+            if (mTaskGeneration != mGeneration || mOldRows != mRows)
+                return;
+
+            mRows = mNewRows;
+            result.dispatchUpdatesTo(StockAdapter.this);
+        }
+    }
+
     class StockViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         // XML Views
@@ -133,9 +335,9 @@ public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHol
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int symbolColumn = mCursor.getColumnIndex(Contract.Quote.COLUMN_SYMBOL);
-            mClickHandler.onStockClick(mCursor.getString(symbolColumn));
+            if (adapterPosition == RecyclerView.NO_POSITION)
+                return;
+            mClickHandler.onStockClick(mRows.get(adapterPosition).quote.getSymbol());
         }
     }
 }
@@ -6,11 +6,25 @@ import android.provider.BaseColumns;
 
 public class Contract {
 
-    static final String AUTHORITY = "com.mozartalouis.stockhawk";
+    public static final String AUTHORITY = "com.mozartalouis.stockhawk";
     static final String PATH_QUOTE = "quote";
     static final String PATH_QUOTE_WITH_SYMBOL = "quote/*";
+    static final String PATH_HISTORY = "history";
+    static final String PATH_HISTORY_WITH_SYMBOL = "history/*";
+    static final String PATH_HISTORY_LATEST = "history_latest";
+    static final String PATH_SERIES = "series";
+    static final String PATH_SERIES_WITH_SYMBOL = "series/*";
+    static final String PATH_WATCHLIST = "watchlist";
+    static final String PATH_WATCHLIST_WITH_SYMBOL = "watchlist/*";
+    static final String PATH_METRIC = "metric";
     private static final Uri BASE_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Latest quote of each stock. A sync writes a stock's quote before its history, in separate
+     * transactions, so a stock may have a quote but no {@link History} yet, or for a new stock
+     * whose history request failed, none until a later sync. Readers show such a stock without
+     * a chart rather than assume one.
+     */
     public static final class Quote implements BaseColumns {
 
         public static final Uri uri = BASE_URI.buildUpon().appendPath(PATH_QUOTE).build();
@@ -21,30 +35,252 @@ public class Contract {
         public static final String COLUMN_PRICE = "price";
         public static final String COLUMN_ABSOLUTE_CHANGE = "absolute_change";
         public static final String COLUMN_PERCENTAGE_CHANGE = "percentage_change";
-        public static final String COLUMN_HISTORY = "history";
 
         public static final int POSITION_ID = 0;
         public static final int POSITION_SYMBOL = 1;
         public static final int POSITION_PRICE = 2;
         public static final int POSITION_ABSOLUTE_CHANGE = 3;
         public static final int POSITION_PERCENTAGE_CHANGE = 4;
-        public static final int POSITION_HISTORY = 5;
 
-        public static final String[] QUOTE_COLUMNS = {
+        /**
+         * The only columns the quote URIs serve: what a list row shows. The provider rejects
+         * anything else, so list cursors stay a few dozen bytes per stock however much history
+         * is stored.
+         */
+        public static final String[] SUMMARY_COLUMNS = {
                 _ID,
                 COLUMN_SYMBOL,
                 COLUMN_PRICE,
                 COLUMN_ABSOLUTE_CHANGE,
                 COLUMN_PERCENTAGE_CHANGE,
-                COLUMN_HISTORY,
         };
 
         public static Uri makeUriForStock(String symbol) {
             return uri.buildUpon().appendPath(symbol).build();
         }
 
+        public static String getStockFromUri(Uri uri) {
+            return uri.getLastPathSegment();
+        }
+    }
+
+    /**
+     * Price history, one row per bar. Kept out of {@link Quote} so that reading a quote never
+     * drags the whole series along with it, and so that a chart can ask for just the window it
+     * is going to draw. Written after the stock's quote, see {@link Quote}.
+     */
+    public static final class History {
+
+        public static final Uri uri = BASE_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        /**
+         * One row per symbol holding the timestamp of its newest stored bar, i.e. the point an
+         * incremental sync can resume from.
+         */
+        public static final Uri latestUri = BASE_URI.buildUpon().appendPath(PATH_HISTORY_LATEST).build();
+
+        static final String TABLE_NAME = "quote_history";
+
+        public static final String COLUMN_SYMBOL = "symbol";
+        // Midnight UTC of the bar's trading day, see SeriesUtils.getDayStamp.
+        public static final String COLUMN_TIMESTAMP = "ts";
+        public static final String COLUMN_CLOSE = "close";
+        public static final String COLUMN_RESOLUTION = "resolution";
+
+        // Bar resolutions. Daily bars are what a sync stores; weekly and monthly bars are rolled
+        // up from them by the provider and kept next to them.
+        public static final int RESOLUTION_DAILY = 0;
+        public static final int RESOLUTION_WEEKLY = 1;
+        public static final int RESOLUTION_MONTHLY = 2;
+
+        // Longest windows still served at daily and weekly resolution by resolutionForRange.
+        private static final long MAX_DAILY_RANGE = 366L * 24 * 60 * 60 * 1000;
+        private static final long MAX_WEEKLY_RANGE = 5 * MAX_DAILY_RANGE;
+
+        // A whole window of history packed by SeriesCodec, as served by the series URIs and as
+        // accepted by bulk writes to uri.
+        public static final String COLUMN_SERIES = "series";
+
+        // Optional query parameters (epoch millis, inclusive) for a ranged history query.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        // Optional query parameter picking the resolution of a history query. Without it the
+        // provider uses resolutionForRange on the requested window when both ends are given,
+        // and daily bars otherwise, so an open-ended query never gets a coarser series than
+        // it may expect.
+        public static final String PARAM_RESOLUTION = "resolution";
+
+        public static final int POSITION_TIMESTAMP = 0;
+        public static final int POSITION_CLOSE = 1;
+
+        public static final int POSITION_LATEST_SYMBOL = 0;
+        public static final int POSITION_LATEST_TIMESTAMP = 1;
+
+        public static final int POSITION_SERIES = 0;
+
+        public static final String[] HISTORY_COLUMNS = {
+                COLUMN_TIMESTAMP,
+                COLUMN_CLOSE,
+        };
+
+        public static Uri makeUriForStock(String symbol) {
+            return uri.buildUpon().appendPath(symbol).build();
+        }
+
+        public static Uri makeUriForStock(String symbol, long from, long to) {
+            return withRange(makeUriForStock(symbol), from, to);
+        }
+
+        /**
+         * A single row, single column ({@link #COLUMN_SERIES}) view of a symbol's history. Far
+         * cheaper to ship and decode than one row per bar when the whole window is wanted.
+         */
+        public static Uri makeSeriesUriForStock(String symbol) {
+            return BASE_URI.buildUpon().appendPath(PATH_SERIES).appendPath(symbol).build();
+        }
+
+        public static Uri makeSeriesUriForStock(String symbol, long from, long to) {
+            return withRange(makeSeriesUriForStock(symbol), from, to);
+        }
+
+        /**
+         * The whole stored series of a symbol at one resolution, e.g. {@link #RESOLUTION_DAILY}
+         * for every bar there is.
+         */
+        public static Uri makeSeriesUriForStock(String symbol, int resolution) {
+            return withResolution(makeSeriesUriForStock(symbol), resolution);
+        }
+
+        public static Uri makeSeriesUriForStock(String symbol, long from, long to, int resolution) {
+            return withResolution(makeSeriesUriForStock(symbol, from, to), resolution);
+        }
+
+        /**
+         * The coarsest resolution that still gives a chart of the window a few hundred points:
+         * daily up to a year, weekly up to five, monthly beyond.
+         */
+        public static int resolutionForRange(long from, long to) {
+            final long range = to - from;
+            if (range <= MAX_DAILY_RANGE)
+                return RESOLUTION_DAILY;
+            if (range <= MAX_WEEKLY_RANGE)
+                return RESOLUTION_WEEKLY;
+            return RESOLUTION_MONTHLY;
+        }
+
+        private static Uri withRange(Uri uri, long from, long to) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_FROM, String.valueOf(from))
+                    .appendQueryParameter(PARAM_TO, String.valueOf(to))
+                    .build();
+        }
+
+        private static Uri withResolution(Uri uri, int resolution) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_RESOLUTION, String.valueOf(resolution))
+                    .build();
+        }
+
         static String getStockFromUri(Uri uri) {
             return uri.getLastPathSegment();
         }
     }
+
+    /**
+     * The stocks the user follows, in the order they were added. Served from memory by the
+     * provider, so reading it never touches the disk once loaded.
+     */
+    public static final class Watchlist {
+
+        public static final Uri uri = BASE_URI.buildUpon().appendPath(PATH_WATCHLIST).build();
+
+        static final String TABLE_NAME = "watchlist";
+
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_POSITION = "position";
+        public static final String COLUMN_ADDED_AT = "added_at";
+        public static final String COLUMN_PRIORITY = "priority";
+
+        public static final int POSITION_SYMBOL = 0;
+        public static final int POSITION_POSITION = 1;
+        public static final int POSITION_ADDED_AT = 2;
+        public static final int POSITION_PRIORITY = 3;
+
+        public static final String[] WATCHLIST_COLUMNS = {
+                COLUMN_SYMBOL,
+                COLUMN_POSITION,
+                COLUMN_ADDED_AT,
+                COLUMN_PRIORITY,
+        };
+
+        public static Uri makeUriForStock(String symbol) {
+            return uri.buildUpon().appendPath(symbol).build();
+        }
+
+        static String getStockFromUri(Uri uri) {
+            return uri.getLastPathSegment();
+        }
+    }
+
+    /**
+     * Timings of the sync, one row per phase of each run. Only the latest
+     * {@link #MAX_ROWS} rows are kept.
+     */
+    public static final class Metric implements BaseColumns {
+
+        public static final Uri uri = BASE_URI.buildUpon().appendPath(PATH_METRIC).build();
+
+        static final String TABLE_NAME = "sync_metric";
+        static final int MAX_ROWS = 5000;
+
+        // Start of the sync run the row belongs to, in epoch millis, shared by all its phases.
+        public static final String COLUMN_RUN = "run";
+        public static final String COLUMN_PHASE = "phase";
+        // Stock the phase worked on, for the phases done per stock.
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_STARTED_AT = "started_at";
+        public static final String COLUMN_DURATION = "duration";
+        public static final String COLUMN_SYMBOLS = "symbols";
+        // Bytes produced or written by the phase, where known.
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ERRORS = "errors";
+
+        public static final int POSITION_ID = 0;
+        public static final int POSITION_RUN = 1;
+        public static final int POSITION_PHASE = 2;
+        public static final int POSITION_SYMBOL = 3;
+        public static final int POSITION_STARTED_AT = 4;
+        public static final int POSITION_DURATION = 5;
+        public static final int POSITION_SYMBOLS = 6;
+        public static final int POSITION_BYTES = 7;
+        public static final int POSITION_ERRORS = 8;
+
+        public static final String[] METRIC_COLUMNS = {
+                _ID,
+                COLUMN_RUN,
+                COLUMN_PHASE,
+                COLUMN_SYMBOL,
+                COLUMN_STARTED_AT,
+                COLUMN_DURATION,
+                COLUMN_SYMBOLS,
+                COLUMN_BYTES,
+                COLUMN_ERRORS,
+        };
+
+        // A whole run, from the first quote request to the widget update.
+        public static final String PHASE_SYNC = "sync";
+        // One quote request, for a chunk of stocks.
+        public static final String PHASE_QUOTES = "quotes";
+        // One history request, for a single stock.
+        public static final String PHASE_HISTORY = "history";
+        // Packing one stock's history for the provider.
+        public static final String PHASE_ENCODE = "encode";
+        // One bulk write, of a chunk of quotes or a batch of histories: its transaction, and
+        // the change notifications sent right after the commit. Notifications the provider
+        // holds back to throttle them go out later and are not timed.
+        public static final String PHASE_WRITE = "write";
+        // The widget update broadcast.
+        public static final String PHASE_WIDGET = "widget";
+    }
 }
@@ -1,18 +1,158 @@
 package com.mozartalouis.stockhawk.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import com.mozartalouis.stockhawk.R;
+import com.mozartalouis.stockhawk.data.Contract.History;
+import com.mozartalouis.stockhawk.data.Contract.Metric;
 import com.mozartalouis.stockhawk.data.Contract.Quote;
+import com.mozartalouis.stockhawk.data.Contract.Watchlist;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+import com.mozartalouis.stockhawk.utils.PrefUtils;
+import com.mozartalouis.stockhawk.utils.SeriesUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 class DbHelper extends SQLiteOpenHelper {
 
-    private static final String NAME = "stock_hawk.db";
-    private static final int VERSION = 1;
+    static final String NAME = "stock_hawk.db";
+    static final int VERSION = 7;
+
+    /**
+     * Schema steps, where {@code MIGRATIONS[v - 1]} takes a database from version {@code v} to
+     * {@code v + 1}. A new schema version appends its step here and bumps {@link #VERSION};
+     * {@link #onCreate} always builds the latest schema directly.
+     * <p>
+     * Steps spell out their table and column names rather than using {@link Contract}, since
+     * they describe the schema as it was at that version and must not follow later renames.
+     */
+    private static final Migration[] MIGRATIONS = {
+            new Migration() {
+                // 1 -> 2: the history text column of each quote becomes one row per bar.
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE quote_history (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "symbol TEXT NOT NULL, " +
+                            "ts INTEGER NOT NULL, " +
+                            "close REAL NOT NULL, " +
+                            "UNIQUE (symbol, ts) ON CONFLICT REPLACE);");
+
+                    SQLiteStatement insert = db.compileStatement(
+                            "INSERT INTO quote_history (symbol, ts, close) VALUES (?, ?, ?)");
+                    Cursor quotes = db.rawQuery("SELECT symbol, history FROM quotes", null);
+                    try {
+                        while (quotes.moveToNext()) {
+                            insertHistoryText(insert, quotes.getString(0), quotes.getString(1));
+                        }
+                    } finally {
+                        quotes.close();
+                        insert.close();
+                    }
+
+                    // SQLite cannot drop a column, so the quotes table is rebuilt without it.
+                    db.execSQL("CREATE TABLE quotes_new (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "symbol TEXT NOT NULL, " +
+                            "price REAL NOT NULL, " +
+                            "absolute_change REAL NOT NULL, " +
+                            "percentage_change REAL NOT NULL, " +
+                            "UNIQUE (symbol) ON CONFLICT REPLACE);");
+                    db.execSQL("INSERT INTO quotes_new " +
+                            "(_id, symbol, price, absolute_change, percentage_change) " +
+                            "SELECT _id, symbol, price, absolute_change, percentage_change " +
+                            "FROM quotes");
+                    db.execSQL("DROP TABLE quotes");
+                    db.execSQL("ALTER TABLE quotes_new RENAME TO quotes");
+                }
+            },
+            new Migration() {
+                // 2 -> 3: history is clustered on (symbol, ts) without a rowid.
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE quote_history_new (" +
+                            "symbol TEXT NOT NULL, " +
+                            "ts INTEGER NOT NULL, " +
+                            "close REAL NOT NULL, " +
+                            "PRIMARY KEY (symbol, ts) ON CONFLICT REPLACE) WITHOUT ROWID;");
+                    db.execSQL("INSERT INTO quote_history_new (symbol, ts, close) " +
+                            "SELECT symbol, ts, close FROM quote_history");
+                    db.execSQL("DROP TABLE quote_history");
+                    db.execSQL("ALTER TABLE quote_history_new RENAME TO quote_history");
+                }
+            },
+            new Migration() {
+                // 3 -> 4: the watchlist moves out of SharedPreferences into its own table.
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE watchlist (" +
+                            "symbol TEXT PRIMARY KEY, " +
+                            "position INTEGER NOT NULL, " +
+                            "added_at INTEGER NOT NULL, " +
+                            "priority INTEGER NOT NULL DEFAULT 0);");
+                    seedWatchlist(context, db);
+                }
+            },
+            new Migration() {
+                // 4 -> 5: history gains a resolution; the bars stored so far were weekly.
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE quote_history_new (" +
+                            "symbol TEXT NOT NULL, " +
+                            "resolution INTEGER NOT NULL DEFAULT 0, " +
+                            "ts INTEGER NOT NULL, " +
+                            "close REAL NOT NULL, " +
+                            "PRIMARY KEY (symbol, resolution, ts) ON CONFLICT REPLACE) " +
+                            "WITHOUT ROWID;");
+                    db.execSQL("INSERT INTO quote_history_new (symbol, resolution, ts, close) " +
+                            "SELECT symbol, 1, ts, close FROM quote_history");
+                    db.execSQL("DROP TABLE quote_history");
+                    db.execSQL("ALTER TABLE quote_history_new RENAME TO quote_history");
+                }
+            },
+            new Migration() {
+                // 5 -> 6: sync timings.
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE sync_metric (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "run INTEGER NOT NULL, " +
+                            "phase TEXT NOT NULL, " +
+                            "symbol TEXT, " +
+                            "started_at INTEGER NOT NULL, " +
+                            "duration INTEGER NOT NULL, " +
+                            "symbols INTEGER NOT NULL DEFAULT 0, " +
+                            "bytes INTEGER, " +
+                            "errors INTEGER NOT NULL DEFAULT 0);");
+                }
+            },
+            new Migration() {
+                // 6 -> 7: daily bars were stamped with midnight in the device's timezone, which
+                // east of UTC falls on the day before; they move to midnight UTC of their date
+                // and the weekly and monthly rollups made from them are rebuilt.
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    restampDailyHistory(db);
+                }
+            },
+    };
+
+    private final Context mContext;
 
     DbHelper(Context context) {
         super(context, NAME, null, VERSION);
+        mContext = context;
+        // Lets the UI and widget keep reading while a sync is writing.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -23,14 +163,176 @@ class DbHelper extends SQLiteOpenHelper {
                 Quote.COLUMN_PRICE + " REAL NOT NULL, " +
                 Quote.COLUMN_ABSOLUTE_CHANGE + " REAL NOT NULL, " +
                 Quote.COLUMN_PERCENTAGE_CHANGE + " REAL NOT NULL, " +
-                Quote.COLUMN_HISTORY + " TEXT NOT NULL, " +
                 "UNIQUE (" + Quote.COLUMN_SYMBOL + ") ON CONFLICT REPLACE);";
         db.execSQL(builder);
+
+        // Clustered on (symbol, resolution, ts): the rows are the index, so there is no rowid or
+        // second copy of the key to store, and ranged queries at one resolution read one
+        // contiguous run of pages.
+        String history = "CREATE TABLE " + History.TABLE_NAME + " (" +
+                History.COLUMN_SYMBOL + " TEXT NOT NULL, " +
+                History.COLUMN_RESOLUTION + " INTEGER NOT NULL DEFAULT " +
+                History.RESOLUTION_DAILY + ", " +
+                History.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                History.COLUMN_CLOSE + " REAL NOT NULL, " +
+                "PRIMARY KEY (" + History.COLUMN_SYMBOL + ", " + History.COLUMN_RESOLUTION + ", " +
+                History.COLUMN_TIMESTAMP + ") ON CONFLICT REPLACE) WITHOUT ROWID;";
+        db.execSQL(history);
+
+        String watchlist = "CREATE TABLE " + Watchlist.TABLE_NAME + " (" +
+                Watchlist.COLUMN_SYMBOL + " TEXT PRIMARY KEY, " +
+                Watchlist.COLUMN_POSITION + " INTEGER NOT NULL, " +
+                Watchlist.COLUMN_ADDED_AT + " INTEGER NOT NULL, " +
+                Watchlist.COLUMN_PRIORITY + " INTEGER NOT NULL DEFAULT 0);";
+        db.execSQL(watchlist);
+        seedWatchlist(mContext, db);
+
+        String metric = "CREATE TABLE " + Metric.TABLE_NAME + " (" +
+                Metric._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                Metric.COLUMN_RUN + " INTEGER NOT NULL, " +
+                Metric.COLUMN_PHASE + " TEXT NOT NULL, " +
+                Metric.COLUMN_SYMBOL + " TEXT, " +
+                Metric.COLUMN_STARTED_AT + " INTEGER NOT NULL, " +
+                Metric.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                Metric.COLUMN_SYMBOLS + " INTEGER NOT NULL DEFAULT 0, " +
+                Metric.COLUMN_BYTES + " INTEGER, " +
+                Metric.COLUMN_ERRORS + " INTEGER NOT NULL DEFAULT 0);";
+        db.execSQL(metric);
     }
 
+    /**
+     * Runs every step from {@code oldVersion} up to {@code newVersion}, keeping the stored quotes
+     * and history. SQLiteOpenHelper wraps the call in a transaction, so a failing step leaves the
+     * database at its old version.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(" DROP TABLE IF EXISTS " + Quote.TABLE_NAME);
-        onCreate(db);
+        if (newVersion - 1 > MIGRATIONS.length)
+            throw new IllegalStateException("No migration to version " + newVersion);
+
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - 1].migrate(mContext, db);
+        }
+    }
+
+    /**
+     * Fills a new watchlist table with the stocks kept in SharedPreferences by older versions,
+     * or with the default stocks on a fresh install. The preference is left alone: should the
+     * upgrade fail and roll back, the next attempt imports it again.
+     */
+    private static void seedWatchlist(Context context, SQLiteDatabase db) {
+        List<String> stocks;
+        final Set<String> legacyStocks = PrefUtils.getLegacyStocks(context);
+        if (legacyStocks != null) {
+            stocks = new ArrayList<>(legacyStocks);
+            Collections.sort(stocks);
+        } else {
+            stocks = Arrays.asList(context.getResources().getStringArray(R.array.default_stocks));
+        }
+
+        final long now = System.currentTimeMillis();
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT OR IGNORE INTO watchlist (symbol, position, added_at) VALUES (?, ?, ?)");
+        try {
+            for (int i = 0; i < stocks.size(); i++) {
+                insert.bindString(1, stocks.get(i));
+                insert.bindLong(2, i);
+                insert.bindLong(3, now);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Parses the version 1 history text, one {@code "<millis>, <close>"} line per bar.
+     */
+    private static void insertHistoryText(SQLiteStatement insert, String symbol, String history) {
+        if (history == null)
+            return;
+
+        for (String line : history.split("\n")) {
+            final int comma = line.indexOf(',');
+            if (comma < 0)
+                continue;
+
+            try {
+                insert.bindString(1, symbol);
+                insert.bindLong(2, Long.parseLong(line.substring(0, comma).trim()));
+                insert.bindDouble(3, Double.parseDouble(line.substring(comma + 1).trim()));
+                insert.executeInsert();
+            } catch (NumberFormatException e) {
+                // A malformed bar is dropped; the next sync fills the gap.
+            }
+        }
+    }
+
+    /**
+     * Moves every daily bar to {@link SeriesUtils#getDayStamp} of its date in the device's
+     * timezone, the one it was stamped in, and rebuilds the rollups of each stock from its first
+     * daily bar on. Rollup bars carry the stamp of their period's first daily bar, so the ones
+     * made from daily bars are exactly those from the oldest old stamp on; earlier ones were
+     * stored before daily bars were and stay as they are.
+     */
+    private static void restampDailyHistory(SQLiteDatabase db) {
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO quote_history (symbol, resolution, ts, close) VALUES (?, ?, ?, ?)");
+        Cursor symbols = db.rawQuery(
+                "SELECT DISTINCT symbol FROM quote_history WHERE resolution = 0", null);
+        try {
+            final Calendar date = Calendar.getInstance();
+            while (symbols.moveToNext()) {
+                final String symbol = symbols.getString(0);
+
+                Cursor bars = db.rawQuery("SELECT ts, close FROM quote_history " +
+                        "WHERE symbol = ? AND resolution = 0 ORDER BY ts", new String[]{symbol});
+                SeriesModel daily;
+                long oldest = Long.MAX_VALUE;
+                try {
+                    final long[] timestamps = new long[bars.getCount()];
+                    final float[] closes = new float[timestamps.length];
+                    for (int i = 0; bars.moveToNext(); i++) {
+                        final long stamp = bars.getLong(0);
+                        oldest = Math.min(oldest, stamp);
+                        date.setTimeInMillis(stamp);
+                        timestamps[i] = SeriesUtils.getDayStamp(date);
+                        closes[i] = bars.getFloat(1);
+                    }
+                    daily = new SeriesModel(timestamps, closes);
+                } finally {
+                    bars.close();
+                }
+
+                db.delete("quote_history", "symbol = ? AND (resolution = 0 OR ts >= ?)",
+                        new String[]{symbol, String.valueOf(oldest)});
+                insertBars(insert, symbol, 0, daily);
+                insertBars(insert, symbol, 1, SeriesUtils.rollUp(daily, SeriesUtils.WEEK));
+                insertBars(insert, symbol, 2, SeriesUtils.rollUp(daily, SeriesUtils.MONTH));
+            }
+        } finally {
+            symbols.close();
+            insert.close();
+        }
+    }
+
+    private static void insertBars(SQLiteStatement insert, String symbol, int resolution,
+                                   SeriesModel series) {
+        final long[] timestamps = series.getTimestamps();
+        final float[] closes = series.getCloses();
+        for (int i = 0; i < series.size(); i++) {
+            insert.bindString(1, symbol);
+            insert.bindLong(2, resolution);
+            insert.bindLong(3, timestamps[i]);
+            insert.bindDouble(4, closes[i]);
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * One schema step, see {@link #MIGRATIONS}.
+     */
+    private static abstract class Migration {
+        abstract void migrate(Context context, SQLiteDatabase db);
     }
 }
@@ -0,0 +1,87 @@
+package com.mozartalouis.stockhawk.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+/**
+ * Loads and decodes the whole stored daily history of one stock off the main thread, and reloads
+ * it whenever that history changes. The daily bars are asked for by name, since a query leaving
+ * the resolution to the provider may get a coarser rollup.
+ */
+public class SeriesLoader extends AsyncTaskLoader<SeriesModel> {
+
+    private static final SeriesModel EMPTY = new SeriesModel(new long[0], new float[0]);
+
+    private final String mSymbol;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+    private SeriesModel mSeries;
+
+    public SeriesLoader(Context context, String symbol) {
+        super(context);
+        this.mSymbol = symbol;
+    }
+
+    @Override
+    public SeriesModel loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(
+                Contract.History.makeSeriesUriForStock(mSymbol, Contract.History.RESOLUTION_DAILY),
+                null,
+                null,
+                null,
+                null
+        );
+        if (cursor == null)
+            return EMPTY;
+
+        try {
+            return cursor.moveToFirst()
+                    ? SeriesCodec.decode(cursor.getBlob(Contract.History.POSITION_SERIES))
+                    : EMPTY;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(SeriesModel series) {
+        if (isReset())
+            return;
+
+        mSeries = series;
+        if (isStarted())
+            super.deliverResult(series);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(
+                    Contract.History.makeUriForStock(mSymbol), false, mObserver);
+            mObserving = true;
+        }
+
+        if (mSeries != null)
+            deliverResult(mSeries);
+        if (takeContentChanged() || mSeries == null)
+            forceLoad();
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mSeries = null;
+    }
+}
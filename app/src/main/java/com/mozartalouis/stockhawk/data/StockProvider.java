@@ -5,27 +5,86 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.mozartalouis.stockhawk.models.SeriesModel;
+import com.mozartalouis.stockhawk.utils.SeriesUtils;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class StockProvider extends ContentProvider {
 
     private static final int QUOTE = 100;
     private static final int QUOTE_FOR_SYMBOL = 101;
+    private static final int HISTORY = 200;
+    private static final int HISTORY_FOR_SYMBOL = 201;
+    private static final int HISTORY_LATEST = 202;
+    private static final int SERIES_FOR_SYMBOL = 203;
+    private static final int WATCHLIST = 300;
+    private static final int WATCHLIST_FOR_SYMBOL = 301;
+    private static final int METRIC = 400;
     private static final UriMatcher uriMatcher = buildUriMatcher();
+    private static final Map<String, String> quoteProjectionMap = buildQuoteProjectionMap();
 
     private DbHelper dbHelper;
 
+    // The watchlist rows in position order, loaded on first use and kept in step with every
+    // write, so reading the watchlist never touches the disk. Guarded by itself.
+    private final List<ContentValues> watchlist = new ArrayList<>();
+    private boolean watchlistLoaded;
+
+    // Shortest time between two notifications of one URI. A sync commits many small batches in
+    // a row, and observers reload once per interval rather than once per batch.
+    private static final long NOTIFY_INTERVAL_MILLIS = 250;
+    // When each URI was last announced, and the URIs waiting for their interval to end. Guarded
+    // by lastNotified.
+    private final Map<Uri, Long> lastNotified = new HashMap<>();
+    private final Set<Uri> delayedNotifications = new HashSet<>();
+    private final Handler notifyHandler = new Handler(Looper.getMainLooper());
+
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE, QUOTE);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE_WITH_SYMBOL, QUOTE_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_HISTORY, HISTORY);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_HISTORY_WITH_SYMBOL, HISTORY_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_HISTORY_LATEST, HISTORY_LATEST);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_SERIES_WITH_SYMBOL, SERIES_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST, WATCHLIST);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_WITH_SYMBOL, WATCHLIST_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_METRIC, METRIC);
         return matcher;
     }
 
+    private static Map<String, String> buildQuoteProjectionMap() {
+        Map<String, String> map = new HashMap<>();
+        for (String column : Contract.Quote.SUMMARY_COLUMNS) {
+            map.put(column, column);
+        }
+        return map;
+    }
+
     @Override
     public boolean onCreate() {
         dbHelper = new DbHelper(getContext());
@@ -36,32 +95,64 @@ public class StockProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         Cursor returnCursor;
+        Uri notificationUri = uri;
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
+                returnCursor = queryQuotes(db, projection, selection, selectionArgs, sortOrder);
+                break;
+
+            case QUOTE_FOR_SYMBOL:
+                returnCursor = queryQuotes(db, projection,
+                        Contract.Quote.COLUMN_SYMBOL + " = ?",
+                        new String[]{Contract.Quote.getStockFromUri(uri)},
+                        sortOrder);
+                break;
+
+            case HISTORY_FOR_SYMBOL:
+                returnCursor = queryHistory(db, uri, projection, sortOrder);
+                break;
+
+            case HISTORY_LATEST:
+                // MAX(ts) of the daily bars per symbol is answered from the primary key alone.
                 returnCursor = db.query(
-                        Contract.Quote.TABLE_NAME,
-                        projection,
-                        selection,
+                        Contract.History.TABLE_NAME,
+                        new String[]{
+                                Contract.History.COLUMN_SYMBOL,
+                                "MAX(" + Contract.History.COLUMN_TIMESTAMP + ") AS "
+                                        + Contract.History.COLUMN_TIMESTAMP},
+                        Contract.History.COLUMN_RESOLUTION + " = " +
+                                Contract.History.RESOLUTION_DAILY +
+                                (selection != null ? " AND (" + selection + ")" : ""),
                         selectionArgs,
-                        null,
+                        Contract.History.COLUMN_SYMBOL,
                         null,
                         sortOrder
                 );
                 break;
 
-            case QUOTE_FOR_SYMBOL:
+            case SERIES_FOR_SYMBOL:
+                returnCursor = querySeries(db, uri);
+                // The series is only a view of the history rows, so it changes when they do.
+                notificationUri = Contract.History.makeUriForStock(
+                        Contract.History.getStockFromUri(uri));
+                break;
+
+            case WATCHLIST:
+                returnCursor = queryWatchlist(db, projection);
+                break;
+
+            case METRIC:
                 returnCursor = db.query(
-                        Contract.Quote.TABLE_NAME,
+                        Contract.Metric.TABLE_NAME,
                         projection,
-                        Contract.Quote.COLUMN_SYMBOL + " = ?",
-                        new String[]{Contract.Quote.getStockFromUri(uri)},
+                        selection,
+                        selectionArgs,
                         null,
                         null,
                         sortOrder
                 );
-
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
@@ -69,11 +160,129 @@ public class StockProvider extends ContentProvider {
 
         final Context context = getContext();
         if (context != null) {
-            returnCursor.setNotificationUri(context.getContentResolver(), uri);
+            returnCursor.setNotificationUri(context.getContentResolver(), notificationUri);
         }
         return returnCursor;
     }
 
+    /**
+     * Serves quotes through a strict projection map limited to
+     * {@link Contract.Quote#SUMMARY_COLUMNS}, defaulting to all of them. Asking for any other
+     * column or expression throws instead of widening the rows of a list cursor.
+     */
+    private Cursor queryQuotes(SQLiteDatabase db, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(Contract.Quote.TABLE_NAME);
+        builder.setProjectionMap(quoteProjectionMap);
+        builder.setStrict(true);
+
+        return builder.query(db,
+                projection != null ? projection : Contract.Quote.SUMMARY_COLUMNS,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder);
+    }
+
+    /**
+     * Serves the whole watchlist in position order from memory. Selection and sort order are not
+     * supported; asking for a column the watchlist does not have throws.
+     */
+    private Cursor queryWatchlist(SQLiteDatabase db, String[] projection) {
+        if (projection == null)
+            projection = Contract.Watchlist.WATCHLIST_COLUMNS;
+
+        synchronized (watchlist) {
+            ensureWatchlistLoaded(db);
+
+            MatrixCursor cursor = new MatrixCursor(projection, watchlist.size());
+            for (ContentValues row : watchlist) {
+                Object[] columns = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    if (!row.containsKey(projection[i]))
+                        throw new IllegalArgumentException("Invalid column " + projection[i]);
+                    columns[i] = row.get(projection[i]);
+                }
+                cursor.addRow(columns);
+            }
+            return cursor;
+        }
+    }
+
+    /**
+     * Serves the history of a single symbol in ascending time order, optionally limited to the
+     * {@link Contract.History#PARAM_FROM} / {@link Contract.History#PARAM_TO} window, at the
+     * {@link Contract.History#PARAM_RESOLUTION} asked for, else the one fitting a window given
+     * in full, else daily.
+     * Rows are read straight off the (symbol, resolution, ts) key, so the cost follows the size
+     * of the window rather than the size of the stored series.
+     */
+    private Cursor queryHistory(SQLiteDatabase db, Uri uri, String[] projection, String sortOrder) {
+        final String symbol = Contract.History.getStockFromUri(uri);
+        final String from = uri.getQueryParameter(Contract.History.PARAM_FROM);
+        final String to = uri.getQueryParameter(Contract.History.PARAM_TO);
+        final String resolution = uri.getQueryParameter(Contract.History.PARAM_RESOLUTION);
+
+        int servedResolution = Contract.History.RESOLUTION_DAILY;
+        if (resolution != null)
+            servedResolution = Integer.parseInt(resolution);
+        else if (from != null && to != null)
+            servedResolution = Contract.History.resolutionForRange(
+                    Long.parseLong(from), Long.parseLong(to));
+
+        StringBuilder selection = new StringBuilder(Contract.History.COLUMN_SYMBOL + " = ? AND " +
+                Contract.History.COLUMN_RESOLUTION + " = ?");
+        List<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(symbol);
+        selectionArgs.add(String.valueOf(servedResolution));
+
+        if (from != null) {
+            selection.append(" AND " + Contract.History.COLUMN_TIMESTAMP + " >= ?");
+            selectionArgs.add(String.valueOf(Long.parseLong(from)));
+        }
+        if (to != null) {
+            selection.append(" AND " + Contract.History.COLUMN_TIMESTAMP + " <= ?");
+            selectionArgs.add(String.valueOf(Long.parseLong(to)));
+        }
+
+        return db.query(
+                Contract.History.TABLE_NAME,
+                projection,
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                null,
+                sortOrder != null ? sortOrder : Contract.History.COLUMN_TIMESTAMP + " ASC"
+        );
+    }
+
+    /**
+     * Packs the requested window of history into a single {@link SeriesCodec} blob so the caller
+     * gets one small cursor row instead of one row per bar.
+     */
+    private Cursor querySeries(SQLiteDatabase db, Uri uri) {
+        Cursor rows = queryHistory(db, uri, Contract.History.HISTORY_COLUMNS, null);
+        byte[] series;
+        try {
+            final int count = rows.getCount();
+            final long[] timestamps = new long[count];
+            final float[] closes = new float[count];
+            for (int i = 0; rows.moveToNext(); i++) {
+                timestamps[i] = rows.getLong(Contract.History.POSITION_TIMESTAMP);
+                closes[i] = rows.getFloat(Contract.History.POSITION_CLOSE);
+            }
+            series = SeriesCodec.encode(timestamps, closes, count);
+        } finally {
+            rows.close();
+        }
+
+        MatrixCursor returnCursor = new MatrixCursor(new String[]{Contract.History.COLUMN_SERIES}, 1);
+        returnCursor.addRow(new Object[]{series});
+        return returnCursor;
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
@@ -84,27 +293,27 @@ public class StockProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
-        Uri returnUri;
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.insert(
-                        Contract.Quote.TABLE_NAME,
-                        null,
-                        values
-                );
-                returnUri = Contract.Quote.uri;
-                break;
+                // Goes through the bulk path, which upserts.
+                bulkInsertQuotes(db, new ContentValues[]{values});
+                return Contract.Quote.makeUriForStock(
+                        values.getAsString(Contract.Quote.COLUMN_SYMBOL));
+            case WATCHLIST:
+                final String watched = values.getAsString(Contract.Watchlist.COLUMN_SYMBOL);
+                final Integer priority = values.getAsInteger(Contract.Watchlist.COLUMN_PRIORITY);
+                if (insertWatchlist(db, watched, priority != null ? priority : 0))
+                    notifyChange(Contract.Watchlist.makeUriForStock(watched));
+                return Contract.Watchlist.makeUriForStock(watched);
+            case HISTORY:
+                // Goes through the bulk path so the rollups follow.
+                bulkInsertHistory(db, new ContentValues[]{values});
+                return Contract.History.makeUriForStock(
+                        values.getAsString(Contract.History.COLUMN_SYMBOL));
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
-
-        final Context context = getContext();
-        if (context != null) {
-            context.getContentResolver().notifyChange(uri, null);
-        }
-
-        return returnUri;
     }
 
     @Override
@@ -125,9 +334,47 @@ public class StockProvider extends ContentProvider {
                 break;
             case QUOTE_FOR_SYMBOL:
                 String symbol = Contract.Quote.getStockFromUri(uri);
+                int historyDeleted;
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            Contract.Quote.TABLE_NAME,
+                            Contract.Quote.COLUMN_SYMBOL + " = ?",
+                            new String[]{symbol}
+                    );
+                    // A removed stock takes its history with it.
+                    historyDeleted = db.delete(
+                            Contract.History.TABLE_NAME,
+                            Contract.History.COLUMN_SYMBOL + " = ?",
+                            new String[]{symbol}
+                    );
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                // Observers of the stock's history and series hear about it as well.
+                Set<Uri> changed = new LinkedHashSet<>();
+                if (rowsDeleted != 0)
+                    changed.add(uri);
+                if (historyDeleted != 0)
+                    changed.add(Contract.History.makeUriForStock(symbol));
+                notifyChanges(changed);
+                return rowsDeleted;
+            case HISTORY_FOR_SYMBOL:
                 rowsDeleted = db.delete(
-                        Contract.Quote.TABLE_NAME,
-                        '"' + symbol + '"' + " =" + Contract.Quote.COLUMN_SYMBOL,
+                        Contract.History.TABLE_NAME,
+                        Contract.History.COLUMN_SYMBOL + " = ?",
+                        new String[]{Contract.History.getStockFromUri(uri)}
+                );
+                break;
+            case WATCHLIST_FOR_SYMBOL:
+                rowsDeleted = deleteWatchlist(db, Contract.Watchlist.getStockFromUri(uri));
+                break;
+            case METRIC:
+                rowsDeleted = db.delete(
+                        Contract.Metric.TABLE_NAME,
+                        selection,
                         selectionArgs
                 );
                 break;
@@ -135,19 +382,36 @@ public class StockProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
-        if (rowsDeleted != 0) {
-            final Context context = getContext();
-            if (context != null) {
-                context.getContentResolver().notifyChange(uri, null);
-            }
-        }
+        if (rowsDeleted != 0)
+            notifyChange(uri);
 
         return rowsDeleted;
     }
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        return 0;
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+
+        switch (uriMatcher.match(uri)) {
+            case QUOTE:
+                rowsUpdated = db.update(
+                        Contract.Quote.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs
+                );
+                if (rowsUpdated != 0)
+                    notifyChange(uri);
+                return rowsUpdated;
+            case QUOTE_FOR_SYMBOL:
+                // An upsert of the one stock, written only if a value moved.
+                ContentValues quote = new ContentValues(values);
+                quote.put(Contract.Quote.COLUMN_SYMBOL, Contract.Quote.getStockFromUri(uri));
+                return bulkInsertQuotes(db, new ContentValues[]{quote});
+            default:
+                throw new UnsupportedOperationException("Unknown URI:" + uri);
+        }
     }
 
     @Override
@@ -156,29 +420,571 @@ public class StockProvider extends ContentProvider {
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        db.insert(
-                                Contract.Quote.TABLE_NAME,
-                                null,
-                                value
-                        );
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                return bulkInsertQuotes(db, values);
+            case HISTORY:
+                return bulkInsertHistory(db, values);
+            case METRIC:
+                return bulkInsertMetrics(db, values);
+            default:
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    /**
+     * Upserts any number of quotes in a single transaction, with one pair of compiled statements
+     * and one read of the stored rows. A row is created if missing, and otherwise only written
+     * when one of the given values differs from the stored one, so its {@code _ID} and the
+     * observers of its URI are left alone when nothing moved. A stock given more than once is
+     * compared against what its previous entry wrote. The changes are announced once committed,
+     * see {@link #notifyChanges}.
+     *
+     * @return The number of stocks actually written.
+     */
+    private int bulkInsertQuotes(SQLiteDatabase db, ContentValues[] values) {
+        Set<Uri> changed = new LinkedHashSet<>();
+        db.beginTransaction();
+        QuoteWriter writer = new QuoteWriter(db);
+        try {
+            Map<String, ContentValues> stored = getQuotes(db);
+            for (ContentValues value : values) {
+                final String symbol = value.getAsString(Contract.Quote.COLUMN_SYMBOL);
+                final ContentValues written = writer.upsert(value, stored.get(symbol));
+                if (written != null) {
+                    stored.put(symbol, written);
+                    changed.add(Contract.Quote.makeUriForStock(symbol));
                 }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+
+        notifyChanges(changed);
+        return changed.size();
+    }
+
+    /**
+     * Writes daily history for any number of symbols in a single transaction. Each value is
+     * either a single bar (symbol, ts, close) or a whole {@link SeriesCodec} packed series
+     * (symbol, series), which is the cheap way to hand over many bars at once. The weekly and
+     * monthly rollups of every touched period are rebuilt in the same transaction. The changes
+     * are announced once committed, see {@link #notifyChanges}.
+     *
+     * @return The number of daily bars written.
+     */
+    private int bulkInsertHistory(SQLiteDatabase db, ContentValues[] values) {
+        // Oldest bar written per symbol: the rollups are rebuilt from its period onwards.
+        Map<String, Long> earliest = new HashMap<>();
+        int returnCount = 0;
 
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " +
+                Contract.History.TABLE_NAME + " (" +
+                Contract.History.COLUMN_SYMBOL + ", " +
+                Contract.History.COLUMN_RESOLUTION + ", " +
+                Contract.History.COLUMN_TIMESTAMP + ", " +
+                Contract.History.COLUMN_CLOSE + ") VALUES (?, ?, ?, ?)");
+        try {
+            for (ContentValues value : values) {
+                final String symbol = value.getAsString(Contract.History.COLUMN_SYMBOL);
+                final byte[] packed = value.getAsByteArray(Contract.History.COLUMN_SERIES);
 
-                final Context context = getContext();
-                if (context != null) {
-                    context.getContentResolver().notifyChange(uri, null);
+                SeriesModel series;
+                if (packed != null) {
+                    series = SeriesCodec.decode(packed);
+                } else {
+                    series = new SeriesModel(
+                            new long[]{value.getAsLong(Contract.History.COLUMN_TIMESTAMP)},
+                            new float[]{value.getAsFloat(Contract.History.COLUMN_CLOSE)});
                 }
-                return returnCount;
-            default:
-                return super.bulkInsert(uri, values);
+                if (series.size() == 0)
+                    continue;
+
+                returnCount += insertBars(statement, symbol,
+                        Contract.History.RESOLUTION_DAILY, series);
+
+                final long first = series.getTimestamps()[0];
+                final Long known = earliest.get(symbol);
+                if (known == null || first < known)
+                    earliest.put(symbol, first);
+            }
+
+            for (Map.Entry<String, Long> symbol : earliest.entrySet()) {
+                updateRollup(db, statement, symbol.getKey(), symbol.getValue(),
+                        Contract.History.RESOLUTION_WEEKLY, SeriesUtils.WEEK);
+                updateRollup(db, statement, symbol.getKey(), symbol.getValue(),
+                        Contract.History.RESOLUTION_MONTHLY, SeriesUtils.MONTH);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+
+        Set<Uri> changed = new LinkedHashSet<>();
+        for (String symbol : earliest.keySet()) {
+            changed.add(Contract.History.makeUriForStock(symbol));
+        }
+        notifyChanges(changed);
+        return returnCount;
+    }
+
+    /**
+     * Appends sync timings and drops the oldest rows beyond {@link Contract.Metric#MAX_ROWS}.
+     *
+     * @return The number of rows written.
+     */
+    private int bulkInsertMetrics(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(Contract.Metric.TABLE_NAME, null, value) != -1)
+                    returnCount++;
+            }
+            db.execSQL("DELETE FROM " + Contract.Metric.TABLE_NAME + " WHERE " +
+                    Contract.Metric._ID + " <= (SELECT MAX(" + Contract.Metric._ID + ") FROM " +
+                    Contract.Metric.TABLE_NAME + ") - " + Contract.Metric.MAX_ROWS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (returnCount != 0)
+            notifyChange(Contract.Metric.uri);
+        return returnCount;
+    }
+
+    /**
+     * Rebuilds one rollup of a symbol from the period holding {@code since} onwards, out of the
+     * stored daily bars.
+     */
+    private static void updateRollup(SQLiteDatabase db, SQLiteStatement insert, String symbol,
+                                     long since, int resolution, int period) {
+        final long start = SeriesUtils.getPeriodStart(since, period);
+
+        Cursor rows = db.query(
+                Contract.History.TABLE_NAME,
+                Contract.History.HISTORY_COLUMNS,
+                Contract.History.COLUMN_SYMBOL + " = ? AND " +
+                        Contract.History.COLUMN_RESOLUTION + " = " +
+                        Contract.History.RESOLUTION_DAILY + " AND " +
+                        Contract.History.COLUMN_TIMESTAMP + " >= ?",
+                new String[]{symbol, String.valueOf(start)},
+                null,
+                null,
+                Contract.History.COLUMN_TIMESTAMP + " ASC"
+        );
+        SeriesModel daily;
+        try {
+            final long[] timestamps = new long[rows.getCount()];
+            final float[] closes = new float[timestamps.length];
+            for (int i = 0; rows.moveToNext(); i++) {
+                timestamps[i] = rows.getLong(Contract.History.POSITION_TIMESTAMP);
+                closes[i] = rows.getFloat(Contract.History.POSITION_CLOSE);
+            }
+            daily = new SeriesModel(timestamps, closes);
+        } finally {
+            rows.close();
+        }
+
+        db.delete(
+                Contract.History.TABLE_NAME,
+                Contract.History.COLUMN_SYMBOL + " = ? AND " +
+                        Contract.History.COLUMN_RESOLUTION + " = ? AND " +
+                        Contract.History.COLUMN_TIMESTAMP + " >= ?",
+                new String[]{symbol, String.valueOf(resolution), String.valueOf(start)}
+        );
+        insertBars(insert, symbol, resolution, SeriesUtils.rollUp(daily, period));
+    }
+
+    private static int insertBars(SQLiteStatement statement, String symbol, int resolution,
+                                  SeriesModel series) {
+        final long[] timestamps = series.getTimestamps();
+        final float[] closes = series.getCloses();
+        int count = 0;
+        for (int i = 0; i < series.size(); i++) {
+            statement.bindString(1, symbol);
+            statement.bindLong(2, resolution);
+            statement.bindLong(3, timestamps[i]);
+            statement.bindDouble(4, closes[i]);
+            if (statement.executeInsert() != -1)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends a stock to the end of the watchlist, unless it is already on it.
+     *
+     * @return Whether the stock was added.
+     */
+    private boolean insertWatchlist(SQLiteDatabase db, String symbol, int priority) {
+        synchronized (watchlist) {
+            ensureWatchlistLoaded(db);
+
+            for (ContentValues row : watchlist) {
+                if (row.getAsString(Contract.Watchlist.COLUMN_SYMBOL).equals(symbol))
+                    return false;
+            }
+
+            final int position = watchlist.isEmpty() ? 0 :
+                    watchlist.get(watchlist.size() - 1)
+                            .getAsInteger(Contract.Watchlist.COLUMN_POSITION) + 1;
+
+            ContentValues row = new ContentValues();
+            row.put(Contract.Watchlist.COLUMN_SYMBOL, symbol);
+            row.put(Contract.Watchlist.COLUMN_POSITION, position);
+            row.put(Contract.Watchlist.COLUMN_ADDED_AT, System.currentTimeMillis());
+            row.put(Contract.Watchlist.COLUMN_PRIORITY, priority);
+
+            if (db.insert(Contract.Watchlist.TABLE_NAME, null, row) == -1)
+                return false;
+            watchlist.add(row);
+            return true;
+        }
+    }
+
+    private int deleteWatchlist(SQLiteDatabase db, String symbol) {
+        synchronized (watchlist) {
+            ensureWatchlistLoaded(db);
+
+            final int rowsDeleted = db.delete(
+                    Contract.Watchlist.TABLE_NAME,
+                    Contract.Watchlist.COLUMN_SYMBOL + " = ?",
+                    new String[]{symbol}
+            );
+            for (int i = 0; i < watchlist.size(); i++) {
+                if (watchlist.get(i).getAsString(Contract.Watchlist.COLUMN_SYMBOL).equals(symbol)) {
+                    watchlist.remove(i);
+                    break;
+                }
+            }
+            return rowsDeleted;
+        }
+    }
+
+    /**
+     * Reads the watchlist table into memory the first time it is needed. Callers hold the
+     * watchlist lock.
+     */
+    private void ensureWatchlistLoaded(SQLiteDatabase db) {
+        if (watchlistLoaded)
+            return;
+
+        Cursor cursor = db.query(
+                Contract.Watchlist.TABLE_NAME,
+                Contract.Watchlist.WATCHLIST_COLUMNS,
+                null,
+                null,
+                null,
+                null,
+                Contract.Watchlist.COLUMN_POSITION
+        );
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues row = new ContentValues();
+                row.put(Contract.Watchlist.COLUMN_SYMBOL,
+                        cursor.getString(Contract.Watchlist.POSITION_SYMBOL));
+                row.put(Contract.Watchlist.COLUMN_POSITION,
+                        cursor.getInt(Contract.Watchlist.POSITION_POSITION));
+                row.put(Contract.Watchlist.COLUMN_ADDED_AT,
+                        cursor.getLong(Contract.Watchlist.POSITION_ADDED_AT));
+                row.put(Contract.Watchlist.COLUMN_PRIORITY,
+                        cursor.getInt(Contract.Watchlist.POSITION_PRIORITY));
+                watchlist.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        watchlistLoaded = true;
+    }
+
+    private static boolean hasChanged(ContentValues stored, ContentValues values) {
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            final Object current = stored.get(value.getKey());
+            final Object incoming = value.getValue();
+
+            if (current instanceof Number && incoming instanceof Number) {
+                // Compare at the precision the column holds.
+                if (Float.compare(((Number) current).floatValue(), ((Number) incoming).floatValue()) != 0)
+                    return true;
+            } else if (current == null ? incoming != null : !current.equals(incoming)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Every stored row, keyed by symbol.
+     */
+    private static Map<String, ContentValues> getQuotes(SQLiteDatabase db) {
+        Map<String, ContentValues> quotes = new HashMap<>();
+        Cursor cursor = db.query(
+                Contract.Quote.TABLE_NAME,
+                Contract.Quote.SUMMARY_COLUMNS,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+        try {
+            while (cursor.moveToNext()) {
+                quotes.put(cursor.getString(Contract.Quote.POSITION_SYMBOL), toQuoteValues(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return quotes;
+    }
+
+    private static ContentValues toQuoteValues(Cursor cursor) {
+        ContentValues values = new ContentValues();
+        values.put(Contract.Quote._ID, cursor.getLong(Contract.Quote.POSITION_ID));
+        values.put(Contract.Quote.COLUMN_SYMBOL, cursor.getString(Contract.Quote.POSITION_SYMBOL));
+        values.put(Contract.Quote.COLUMN_PRICE, cursor.getFloat(Contract.Quote.POSITION_PRICE));
+        values.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+                cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE));
+        values.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE,
+                cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE));
+        return values;
+    }
+
+    /**
+     * Prints the sync timings: count, p50, p99 and max duration, errors and bytes per phase, and
+     * with the {@code csv} argument every stored row after that. Reached with
+     * {@code adb shell dumpsys activity provider StockProvider [csv]}, so the numbers can be
+     * pulled from any build and compared across releases.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        final SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        writer.println("phase,count,p50_ms,p99_ms,max_ms,errors,bytes");
+        Cursor cursor = db.query(
+                Contract.Metric.TABLE_NAME,
+                new String[]{
+                        Contract.Metric.COLUMN_PHASE,
+                        Contract.Metric.COLUMN_DURATION,
+                        Contract.Metric.COLUMN_ERRORS,
+                        Contract.Metric.COLUMN_BYTES},
+                null,
+                null,
+                null,
+                null,
+                Contract.Metric.COLUMN_PHASE + ", " + Contract.Metric.COLUMN_DURATION
+        );
+        try {
+            String phase = null;
+            List<Long> durations = new ArrayList<>();
+            long errors = 0;
+            long bytes = 0;
+            while (cursor.moveToNext()) {
+                if (!cursor.getString(0).equals(phase)) {
+                    dumpPhase(writer, phase, durations, errors, bytes);
+                    phase = cursor.getString(0);
+                    durations.clear();
+                    errors = 0;
+                    bytes = 0;
+                }
+                durations.add(cursor.getLong(1));
+                errors += cursor.getLong(2);
+                bytes += cursor.getLong(3);
+            }
+            dumpPhase(writer, phase, durations, errors, bytes);
+        } finally {
+            cursor.close();
+        }
+
+        if (args == null || !Arrays.asList(args).contains("csv"))
+            return;
+
+        writer.println();
+        writer.println(TextUtils.join(",", Contract.Metric.METRIC_COLUMNS));
+        cursor = db.query(Contract.Metric.TABLE_NAME, Contract.Metric.METRIC_COLUMNS,
+                null, null, null, null, Contract.Metric._ID);
+        try {
+            final String[] row = new String[Contract.Metric.METRIC_COLUMNS.length];
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = cursor.isNull(i) ? "" : cursor.getString(i);
+                }
+                writer.println(TextUtils.join(",", row));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param durations Durations of the phase, in ascending order
+     */
+    private static void dumpPhase(PrintWriter writer, String phase, List<Long> durations,
+                                  long errors, long bytes) {
+        if (phase == null)
+            return;
+
+        // Nearest-rank percentiles.
+        final int count = durations.size();
+        final long p50 = durations.get((int) Math.ceil(0.50 * count) - 1);
+        final long p99 = durations.get((int) Math.ceil(0.99 * count) - 1);
+        writer.println(phase + "," + count + "," + p50 + "," + p99 + ","
+                + durations.get(count - 1) + "," + errors + "," + bytes);
+    }
+
+    /**
+     * Announces the changes of a committed batch. When several stocks of one table changed, the
+     * table's URI is announced once instead, which reaches the observers of each stock all the
+     * same.
+     */
+    private void notifyChanges(Set<Uri> changes) {
+        Map<Uri, Integer> parents = new HashMap<>();
+        for (Uri uri : changes) {
+            final Uri parent = getParent(uri);
+            if (parent != null) {
+                final Integer count = parents.get(parent);
+                parents.put(parent, count == null ? 1 : count + 1);
+            }
+        }
+
+        Set<Uri> notifications = new LinkedHashSet<>();
+        for (Uri uri : changes) {
+            final Uri parent = getParent(uri);
+            notifications.add(parent != null && parents.get(parent) > 1 ? parent : uri);
+        }
+        for (Uri uri : notifications) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * @return The URI one path segment up, or {@code null} for a table's own URI.
+     */
+    private static Uri getParent(Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2)
+            return null;
+
+        Uri.Builder builder = new Uri.Builder()
+                .scheme(uri.getScheme())
+                .authority(uri.getAuthority());
+        for (String segment : segments.subList(0, segments.size() - 1)) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Announces a change, at most once per {@link #NOTIFY_INTERVAL_MILLIS} for each URI. A change
+     * within the interval is announced when it ends, along with any others made meanwhile.
+     */
+    private void notifyChange(final Uri uri) {
+        synchronized (lastNotified) {
+            final long now = SystemClock.uptimeMillis();
+            final Long last = lastNotified.get(uri);
+            if (last != null && now - last < NOTIFY_INTERVAL_MILLIS) {
+                if (delayedNotifications.add(uri)) {
+                    notifyHandler.postAtTime(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (lastNotified) {
+                                delayedNotifications.remove(uri);
+                                lastNotified.put(uri, SystemClock.uptimeMillis());
+                            }
+                            sendNotification(uri);
+                        }
+                    }, last + NOTIFY_INTERVAL_MILLIS);
+                }
+                return;
+            }
+
+            // Forgets the URIs that have been quiet for a whole interval.
+            Iterator<Long> times = lastNotified.values().iterator();
+            while (times.hasNext()) {
+                if (now - times.next() >= NOTIFY_INTERVAL_MILLIS)
+                    times.remove();
+            }
+            lastNotified.put(uri, now);
+        }
+        sendNotification(uri);
+    }
+
+    private void sendNotification(Uri uri) {
+        final Context context = getContext();
+        if (context != null) {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Compiled insert and update statements for quotes, compiled once and rebound for every
+     * stock of a batch.
+     */
+    private static final class QuoteWriter {
+
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mUpdate;
+
+        QuoteWriter(SQLiteDatabase db) {
+            mInsert = db.compileStatement("INSERT INTO " + Contract.Quote.TABLE_NAME + " (" +
+                    Contract.Quote.COLUMN_PRICE + ", " +
+                    Contract.Quote.COLUMN_ABSOLUTE_CHANGE + ", " +
+                    Contract.Quote.COLUMN_PERCENTAGE_CHANGE + ", " +
+                    Contract.Quote.COLUMN_SYMBOL + ") VALUES (?, ?, ?, ?)");
+            mUpdate = db.compileStatement("UPDATE " + Contract.Quote.TABLE_NAME + " SET " +
+                    Contract.Quote.COLUMN_PRICE + " = ?, " +
+                    Contract.Quote.COLUMN_ABSOLUTE_CHANGE + " = ?, " +
+                    Contract.Quote.COLUMN_PERCENTAGE_CHANGE + " = ? WHERE " +
+                    Contract.Quote._ID + " = ?");
+        }
+
+        /**
+         * Writes a quote unless every given value matches the stored row. Values missing from
+         * {@code values} keep their stored value.
+         *
+         * @param values Quote values, including its symbol
+         * @param stored The stored row of the same stock, or {@code null} if there is none
+         * @return The row as now stored, or {@code null} if nothing was written.
+         */
+        ContentValues upsert(ContentValues values, ContentValues stored) {
+            if (stored != null && !hasChanged(stored, values))
+                return null;
+            ContentValues merged = new ContentValues();
+            if (stored != null)
+                merged.putAll(stored);
+            merged.putAll(values);
+
+            final String symbol = merged.getAsString(Contract.Quote.COLUMN_SYMBOL);
+            final Float price = merged.getAsFloat(Contract.Quote.COLUMN_PRICE);
+            final Float absoluteChange = merged.getAsFloat(Contract.Quote.COLUMN_ABSOLUTE_CHANGE);
+            final Float percentageChange = merged.getAsFloat(Contract.Quote.COLUMN_PERCENTAGE_CHANGE);
+            if (symbol == null || price == null || absoluteChange == null || percentageChange == null)
+                return null;
+
+            final SQLiteStatement statement = stored == null ? mInsert : mUpdate;
+            statement.bindDouble(1, price);
+            statement.bindDouble(2, absoluteChange);
+            statement.bindDouble(3, percentageChange);
+
+            if (stored == null) {
+                statement.bindString(4, symbol);
+                final long id = statement.executeInsert();
+                if (id == -1)
+                    return null;
+                merged.put(Contract.Quote._ID, id);
+                return merged;
+            }
+            statement.bindLong(4, stored.getAsLong(Contract.Quote._ID));
+            return statement.executeUpdateDelete() != 0 ? merged : null;
+        }
+
+        void close() {
+            mInsert.close();
+            mUpdate.close();
         }
     }
 }
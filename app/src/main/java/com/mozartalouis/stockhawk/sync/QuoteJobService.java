@@ -2,21 +2,87 @@ package com.mozartalouis.stockhawk.sync;
 
 import android.app.job.JobParameters;
 import android.app.job.JobService;
-import android.content.Intent;
+import android.content.Context;
+import android.util.SparseArray;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the full sync jobs, requested or scheduled, on a single background thread so that they
+ * never overlap, and syncs of single stocks on another; {@link SyncCoordinator} decides what
+ * each job syncs. The job is held until its
+ * sync is done, and a stopped job has its sync interrupted, which abandons the requests in
+ * flight and the chunk being written.
+ */
 public class QuoteJobService extends JobService {
 
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    // Syncs of single stocks run on their own thread, next to a full sync rather than after it.
+    private static final ExecutorService sStocksExecutor = Executors.newSingleThreadExecutor();
+
+    // Syncs of the jobs started and not yet finished or stopped, keyed by job id.
+    private final SparseArray<Future<?>> mRunning = new SparseArray<>();
+
     @Override
-    public boolean onStartJob(JobParameters jobParameters) {
-        Intent nowIntent = new Intent(getApplicationContext(), QuoteIntentService.class);
-        getApplicationContext().startService(nowIntent);
+    public boolean onStartJob(final JobParameters jobParameters) {
+        final Context context = getApplicationContext();
+        final int jobId = jobParameters.getJobId();
+
+        if (jobId == QuoteSyncJob.STOCKS_ID) {
+            synchronized (mRunning) {
+                mRunning.put(jobId, sStocksExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        SyncCoordinator.runStocks(context);
+                        finish(jobParameters);
+                    }
+                }));
+            }
+            return true;
+        }
+
+        synchronized (mRunning) {
+            mRunning.put(jobId, sExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final boolean synced =
+                            SyncCoordinator.run(context, jobId == QuoteSyncJob.ONE_OFF_ID);
+                    // A one-off job with nothing to do leaves the schedule as it was.
+                    if (finish(jobParameters) && synced)
+                        QuoteSyncJob.scheduleNext(context);
+                }
+            }));
+        }
         return true;
     }
 
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        return false;
+        Future<?> sync;
+        synchronized (mRunning) {
+            sync = mRunning.get(jobParameters.getJobId());
+            mRunning.remove(jobParameters.getJobId());
+        }
+        if (sync != null)
+            sync.cancel(true);
+        // Try again later, the sync did not get to finish.
+        return true;
     }
 
-
+    /**
+     * Releases the job once its sync is done, unless it was stopped in the meantime.
+     *
+     * @return Whether the job was still running.
+     */
+    private boolean finish(JobParameters jobParameters) {
+        synchronized (mRunning) {
+            if (mRunning.get(jobParameters.getJobId()) == null)
+                return false;
+            mRunning.remove(jobParameters.getJobId());
+        }
+        jobFinished(jobParameters, false);
+        return true;
+    }
 }
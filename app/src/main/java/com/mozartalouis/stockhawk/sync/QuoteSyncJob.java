@@ -7,29 +7,42 @@ import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.net.http.HttpResponseCache;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
 import android.widget.Toast;
 
+import com.google.common.collect.Lists;
 import com.mozartalouis.stockhawk.R;
 import com.mozartalouis.stockhawk.data.Contract;
-import com.mozartalouis.stockhawk.utils.PrefUtils;
-import com.mozartalouis.stockhawk.utils.NetworkUtils;
+import com.mozartalouis.stockhawk.data.SeriesCodec;
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+import com.mozartalouis.stockhawk.utils.WatchlistUtils;
 
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import yahoofinance.Stock;
-import yahoofinance.YahooFinance;
-import yahoofinance.histquotes.HistoricalQuote;
-import yahoofinance.histquotes.Interval;
-import yahoofinance.quotes.stock.StockQuote;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static android.os.Looper.getMainLooper;
 
@@ -41,136 +54,467 @@ public final class QuoteSyncJob {
 
     // Used for immediate sync functionality
     private static final int INITIAL_BACKOFF = 10000;
-    private static final int ONE_OFF_ID = 2;
+    static final int ONE_OFF_ID = 2;
+    static final int STOCKS_ID = 3;
+
+    // Used to schedule the next background update of stock data
+    private static final int SCHEDULED_ID = 1;
 
-    // Used to schedules updates on stock data
-    private static final int PERIODIC_ID = 1;
-    private static final int PERIOD = 300000;
+    private static final String TAG = QuoteSyncJob.class.getSimpleName();
 
-    // Used to obtain historical data.
-    private static final int YEARS_OF_HISTORY = 2;
+    // Where quotes and histories come from, the live service unless replaced.
+    private static volatile QuoteSource sQuoteSource = new YahooQuoteSource();
 
     /**
      * Initializes sync jobs on runtime.
      *
      * @param context Activity context
+     * @return Handle on the first sync
      */
-    public synchronized static void initialize(final Context context) {
-        schedulePeriodic(context);
-        syncImmediately(context);
+    public synchronized static SyncRequest initialize(final Context context) {
+        scheduleNext(context);
+        return syncImmediately(context);
     }
 
     /**
      * Syncs stock data as soon as it can. This is used to update the stock data at any given \
-     * moment.
+     * moment. Without a connection the sync waits for one. Requests made while another one is
+     * waiting or running are served together, see {@link SyncCoordinator}.
      *
      * @param context Activity context
+     * @return Handle on the sync that will serve this request
      */
-    public synchronized static void syncImmediately(Context context) {
-        if (NetworkUtils.hasInternetConnection(context)) {
-            Intent nowIntent = new Intent(context, QuoteIntentService.class);
-            context.startService(nowIntent);
-        } else {
-            JobInfo.Builder builder = new JobInfo.Builder(ONE_OFF_ID, new ComponentName(context, QuoteJobService.class));
-            builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
-                    .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
-            JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
-            scheduler.schedule(builder.build());
-        }
+    public static SyncRequest syncImmediately(Context context) {
+        return SyncCoordinator.request(context.getApplicationContext());
     }
 
     /**
-     * Schedules a periodic sync for background syncing of data. This will run every 5 miniutes.
-     * {@link QuoteSyncJob##PERIOD}
+     * Syncs only the given stocks, as soon as it can and without waiting for a full sync that
+     * may be running. Used for stocks just added to the watchlist, so they show up after one
+     * round trip however long the watchlist is; the others are left to the schedule.
      *
      * @param context Activity context
+     * @param stocks  Symbols to sync
+     * @return Handle on the sync that will serve this request
+     */
+    public static SyncRequest syncStocks(Context context, Collection<String> stocks) {
+        return SyncCoordinator.requestStocks(context.getApplicationContext(), stocks);
+    }
+
+    /**
+     * Schedules the job serving requested syncs, once {@code R.integer.sync_debounce}
+     * milliseconds have passed so that requests coming in a burst share it.
+     *
+     * @param context Application context
      */
-    private synchronized static void schedulePeriodic(Context context) {
-        JobInfo.Builder builder = new JobInfo.Builder(PERIODIC_ID, new ComponentName(context, QuoteJobService.class));
+    synchronized static void scheduleOneOff(Context context) {
+        JobInfo.Builder builder = new JobInfo.Builder(ONE_OFF_ID, new ComponentName(context, QuoteJobService.class));
         builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
-                .setPeriodic(PERIOD)
+                .setMinimumLatency(context.getResources().getInteger(R.integer.sync_debounce))
                 .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
         JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
         scheduler.schedule(builder.build());
     }
 
-    static void getQuotes(Context context) {
-        Calendar from = Calendar.getInstance();
-        Calendar to = Calendar.getInstance();
-        from.add(Calendar.YEAR, -YEARS_OF_HISTORY);
+    /**
+     * Schedules the job serving requested syncs of single stocks, to start right away.
+     *
+     * @param context Application context
+     */
+    synchronized static void scheduleStocks(Context context) {
+        JobInfo.Builder builder = new JobInfo.Builder(STOCKS_ID, new ComponentName(context, QuoteJobService.class));
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(builder.build());
+    }
 
+    /**
+     * Replaces the source of market data for the following syncs, e.g. with a
+     * {@link ReplayQuoteSource} to benchmark or test the sync without a network.
+     *
+     * @param source Source to use
+     */
+    public static void setQuoteSource(QuoteSource source) {
+        sQuoteSource = source;
+    }
 
-        Set<String> stockPref = PrefUtils.getStocks(context);
-        Set<String> stockCopy = new HashSet<>();
-        stockCopy.addAll(stockPref);
-        String[] stockArray = stockPref.toArray(new String[stockPref.size()]);
-        if (stockArray.length == 0)
-            return;
+    /**
+     * Schedules the next background sync according to the NYSE session in progress: every
+     * {@code R.integer.sync_interval_regular} milliseconds during regular hours, every
+     * {@code R.integer.sync_interval_extended} during pre-market and after-hours, and never while
+     * the market is closed, save for one catch-up sync when the next pre-market opens. A sync
+     * never waits past the end of its session, so the new interval applies from the boundary on.
+     * <p>
+     * Replaces any sync scheduled before, so it is called again after every sync.
+     *
+     * @param context Application context
+     */
+    public synchronized static void scheduleNext(Context context) {
+        final Resources resources = context.getResources();
+        final long now = System.currentTimeMillis();
+        final long untilChange = MarketHours.NYSE.getNextChange(now) - now;
 
+        long delay;
+        switch (MarketHours.NYSE.getSession(now)) {
+            case REGULAR:
+                delay = Math.min(resources.getInteger(R.integer.sync_interval_regular), untilChange);
+                break;
+            case PRE_MARKET:
+            case AFTER_HOURS:
+                delay = Math.min(resources.getInteger(R.integer.sync_interval_extended), untilChange);
+                break;
+            default:
+                delay = untilChange;
+                break;
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(SCHEDULED_ID, new ComponentName(context, QuoteJobService.class));
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delay)
+                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(builder.build());
+    }
+
+    /**
+     * Fetches the latest quotes for every stock and brings their history up to date. Symbols
+     * that already have history only request the tail from their newest stored bar onwards,
+     * which is re-fetched so the still-open bar picks up its latest close. Symbols without daily
+     * history, new ones as well as ones stored before daily bars were, get the full window of
+     * {@code R.integer.sync_history_years} years of daily bars.
+     * <p>
+     * The stocks are requested in chunks of {@code R.integer.sync_quote_chunk_size}, up to
+     * {@code R.integer.sync_quote_threads} chunks at a time. The quotes of a chunk are written as
+     * soon as they are in, so the list fills in after one round trip; its histories are then
+     * requested and written in small batches as they arrive, see {@link SyncWriter}. A chunk
+     * that fails is skipped without affecting the others. The time spent in each phase is
+     * recorded in {@link Contract.Metric}.
+     * <p>
+     * Each stock is handled on its own and ends up with a {@link SymbolStatus}. Stocks without a
+     * stored quote that the source reported unknown are skipped for a while, see
+     * {@link UnknownSymbols}; a stock that fails, or that had a quote and is suddenly reported
+     * unknown, keeps serving whatever is stored for it.
+     * <p>
+     * Interrupting the calling thread cancels the requests in flight and writes nothing more;
+     * what was already written stays, each write being complete. The thread is left
+     * interrupted.
+     *
+     * @param context Application context
+     * @return The status of every stock, keyed by symbol.
+     */
+    static Map<String, SymbolStatus> getQuotes(Context context) {
+        List<String> stocks = WatchlistUtils.getStocks(context);
+        if (stocks.isEmpty())
+            return new LinkedHashMap<>();
+
+        return getQuotes(context, stocks, getLatestHistory(context));
+    }
+
+    /**
+     * Syncs the given stocks only, e.g. the ones just added, the same way as
+     * {@link #getQuotes(Context)} syncs all of them.
+     *
+     * @param context Application context
+     * @param stocks  Symbols to sync
+     * @return The status of every stock, keyed by symbol.
+     */
+    static Map<String, SymbolStatus> getQuotes(Context context, List<String> stocks) {
+        if (stocks.isEmpty())
+            return new LinkedHashMap<>();
+
+        return getQuotes(context, stocks, getLatestHistory(context));
+    }
+
+    private static Map<String, SymbolStatus> getQuotes(Context context, List<String> stocks,
+                                                       Map<String, Long> latestHistory) {
+        final Map<String, SymbolStatus> results = new LinkedHashMap<>();
+        final Set<String> unknown = UnknownSymbols.get(context);
+        final List<String> requested = new ArrayList<>();
+        for (String symbol : stocks) {
+            if (unknown.contains(symbol))
+                results.put(symbol, SymbolStatus.UNKNOWN);
+            else
+                requested.add(symbol);
+        }
+        if (requested.isEmpty())
+            return results;
+
+        final Resources resources = context.getResources();
+        Calendar calendar = Calendar.getInstance();
+        final long to = calendar.getTimeInMillis();
+        calendar.add(Calendar.YEAR, -resources.getInteger(R.integer.sync_history_years));
+        final long from = calendar.getTimeInMillis();
+
+        final QuoteSource source = sQuoteSource;
+        final SyncMetrics metrics = new SyncMetrics();
+        final long syncStart = SyncMetrics.start();
+        final int chunkSize = resources.getInteger(R.integer.sync_quote_chunk_size);
+        final int quoteThreads = resources.getInteger(R.integer.sync_quote_threads);
+        final int historyThreads =
+                Math.min(resources.getInteger(R.integer.sync_history_threads), requested.size());
+        final int historyTimeout = resources.getInteger(R.integer.sync_history_timeout);
+        final Set<String> stored = getStoredQuotes(context);
+        final List<String> newlyUnknown = new ArrayList<>();
+        final SyncWriter writer = new SyncWriter(context, metrics, results);
+
+        List<List<String>> chunks = Lists.partition(requested, chunkSize);
+        ExecutorService quoteExecutor = Executors.newFixedThreadPool(Math.min(quoteThreads, chunks.size()));
+        ExecutorService historyExecutor = Executors.newFixedThreadPool(historyThreads);
+        CompletionService<Map<String, QuoteModel>> quoteCompletion =
+                new ExecutorCompletionService<>(quoteExecutor);
+        CompletionService<ContentValues> historyCompletion =
+                new ExecutorCompletionService<>(historyExecutor);
+        // The symbols behind each request, to know whom a failed request leaves without data.
+        Map<Future<Map<String, QuoteModel>>, List<String>> chunkSymbols = new HashMap<>();
+        Map<Future<ContentValues>, String> historySymbols = new HashMap<>();
+        for (final List<String> chunk : chunks) {
+            chunkSymbols.put(quoteCompletion.submit(new Callable<Map<String, QuoteModel>>() {
+                @Override
+                public Map<String, QuoteModel> call() throws IOException {
+                    final long start = SyncMetrics.start();
+                    int errors = 1;
+                    try {
+                        Map<String, QuoteModel> quotes = source.getQuotes(chunk);
+                        errors = 0;
+                        return quotes;
+                    } finally {
+                        metrics.record(Contract.Metric.PHASE_QUOTES, null, start,
+                                chunk.size(), -1, errors);
+                    }
+                }
+            }), chunk);
+        }
+        quoteExecutor.shutdown();
 
-        Map<String, Stock> quotes;
         try {
-            quotes = YahooFinance.get(stockArray);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
+            // Every wave of history requests, one per worker, adds its timeout to the budget.
+            long historyDeadline = SystemClock.elapsedRealtime();
+            int chunksLeft = chunks.size();
+            while (chunksLeft > 0 || !historySymbols.isEmpty()) {
+                final long wait = Math.min(writer.getFlushDelay(), writer.getMaxDelay());
+                if (chunksLeft > 0) {
+                    // Quotes come first, each chunk written as soon as it is in.
+                    final Future<Map<String, QuoteModel>> chunk =
+                            quoteCompletion.poll(wait, TimeUnit.MILLISECONDS);
+                    if (chunk != null) {
+                        chunksLeft--;
+                        List<HistoryTask> tasks = writeChunk(context, source, metrics, writer,
+                                chunk, chunkSymbols.get(chunk), latestHistory, stored, from, to,
+                                results, newlyUnknown);
+                        for (HistoryTask task : tasks) {
+                            historySymbols.put(historyCompletion.submit(task), task.getSymbol());
+                        }
+                        final int waves = (tasks.size() + historyThreads - 1) / historyThreads;
+                        historyDeadline = Math.max(historyDeadline, SystemClock.elapsedRealtime())
+                                + (long) waves * historyTimeout;
+                    }
+                } else {
+                    final long remaining = historyDeadline - SystemClock.elapsedRealtime();
+                    final Future<ContentValues> history = historyCompletion.poll(
+                            Math.max(0, Math.min(wait, remaining)), TimeUnit.MILLISECONDS);
+                    if (history != null)
+                        addHistory(writer, historySymbols, history);
+                }
+
+                Future<ContentValues> history;
+                while ((history = historyCompletion.poll()) != null) {
+                    addHistory(writer, historySymbols, history);
+                }
+
+                // Whatever is still running once the budget is spent is cancelled, and its
+                // stock keeps the history it had.
+                if (SystemClock.elapsedRealtime() >= historyDeadline) {
+                    for (Map.Entry<Future<ContentValues>, String> late : historySymbols.entrySet()) {
+                        late.getKey().cancel(true);
+                        Log.w(TAG, "History request timed out for " + late.getValue());
+                    }
+                    historySymbols.clear();
+                }
+
+                writer.flushIfDue();
+            }
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Interrupts whatever requests are still in flight.
+            quoteExecutor.shutdownNow();
+            historyExecutor.shutdownNow();
         }
 
+        // Stocks the sync did not get to, having been interrupted, keep their stored data too.
+        for (String symbol : requested) {
+            if (!results.containsKey(symbol))
+                results.put(symbol, SymbolStatus.TRANSIENT_ERROR);
+        }
+        UnknownSymbols.add(context, newlyUnknown);
+
+        if (writer.isUpdated()) {
+            final long start = SyncMetrics.start();
+            updateWidget(context);
+            metrics.record(Contract.Metric.PHASE_WIDGET, null, start, 0, -1, 0);
+        }
+
+        metrics.record(Contract.Metric.PHASE_SYNC, null, syncStart, requested.size(), -1,
+                metrics.getErrors());
+        metrics.save(context);
 
-        Iterator<String> iterator = stockCopy.iterator();
-        ArrayList<ContentValues> quoteCVs = new ArrayList<>();
+        // Puts the responses cached during the sync on disk, should the process be killed.
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null)
+            cache.flush();
+        return results;
+    }
+
+    /**
+     * Validates one chunk of quotes and writes the ones of the stocks that exist. Every stock of
+     * the chunk gets its status, whatever happens to the others.
+     *
+     * @param chunk        The finished quote request
+     * @param symbols      Symbols the request was for
+     * @param stored       Symbols that already have a quote stored
+     * @param statuses     Status per symbol, added to
+     * @param newlyUnknown Symbols without a stored quote the source reported unknown, added to
+     * @return One history request per stock whose quote was written.
+     */
+    private static List<HistoryTask> writeChunk(Context context, QuoteSource source,
+                                                SyncMetrics metrics, SyncWriter writer,
+                                                Future<Map<String, QuoteModel>> chunk,
+                                                List<String> symbols, Map<String, Long> latestHistory,
+                                                Set<String> stored, long from, long to,
+                                                Map<String, SymbolStatus> statuses,
+                                                List<String> newlyUnknown)
+            throws InterruptedException {
+        List<HistoryTask> historyTasks = new ArrayList<>();
+
+        Map<String, QuoteModel> quotes;
+        try {
+            quotes = chunk.get();
+        } catch (ExecutionException | CancellationException e) {
+            Log.w(TAG, "Quote request failed for a chunk of stocks", e.getCause());
+            for (String symbol : symbols) {
+                statuses.put(symbol, SymbolStatus.TRANSIENT_ERROR);
+            }
+            return historyTasks;
+        }
+
+        Iterator<String> iterator = quotes.keySet().iterator();
+        Map<String, ContentValues> pendingQuoteCVs = new LinkedHashMap<>();
 
         while (iterator.hasNext()) {
             String symbol = iterator.next();
-            Stock stock = quotes.get(symbol);
-            StockQuote quote;
-            float change;
-            float price;
-            float percentChange;
-            try {
-                quote = stock.getQuote();
-                price = quote.getPrice().floatValue();
-                change = quote.getChange().floatValue();
-                percentChange = quote.getChangeInPercent().floatValue();
+            QuoteModel quote = quotes.get(symbol);
 
-            } catch (NullPointerException exception) {
+            if (quote == null) {
+                // A stock that had a quote keeps it and is asked for again next sync, in case
+                // the source only lost track of it for a while; remembering it as unknown would
+                // leave it silently out of date.
+                if (stored.contains(symbol)) {
+                    Log.w(TAG, "No quote for " + symbol + ", keeping the stored one");
+                    statuses.put(symbol, SymbolStatus.TRANSIENT_ERROR);
+                    continue;
+                }
+
+                // One that never had a quote was most likely mistyped, so we remove it from our
+                // watchlist rather than hold onto an invalid stock.
+                statuses.put(symbol, SymbolStatus.UNKNOWN);
+                newlyUnknown.add(symbol);
                 showErrorOnMainThread(context, symbol);
-                // We want to make sure that when a stock is not found, We remove it from
-                // our preferences so that were not holding onto an invalid stock.
-                PrefUtils.removeStock(context, symbol);
-                break;
+                WatchlistUtils.removeStock(context, symbol);
+                continue;
             }
 
-            try {
-                // If we've made it this far, We know the stock exists, so let's try to get some
-                // historical data on it!
-                List<HistoricalQuote> history = stock.getHistory(from, to, Interval.WEEKLY);
-                StringBuilder historyBuilder = new StringBuilder();
-                for (HistoricalQuote it : history) {
-                    historyBuilder.append(it.getDate().getTimeInMillis());
-                    historyBuilder.append(", ");
-                    historyBuilder.append(it.getClose());
-                    historyBuilder.append("\n");
-                }
+            // If we've made it this far, We know the stock exists, so let's queue up a request
+            // for some historical data on it!
+            long historyFrom = from;
+            Long latest = latestHistory.get(symbol);
+            if (latest != null)
+                historyFrom = Math.min(latest, to);
+            historyTasks.add(new HistoryTask(source, metrics, symbol, historyFrom, to));
+
+            ContentValues quoteCV = new ContentValues();
+            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
+            quoteCV.put(Contract.Quote.COLUMN_PRICE, quote.getPrice());
+            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, quote.getPercentageChange());
+            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, quote.getAbsoluteChange());
+            pendingQuoteCVs.put(symbol, quoteCV);
+        }
+
+        // The quotes land before their histories are even requested, so a new stock shows up
+        // after one round trip and gets its chart once the history follows. A quote row no
+        // longer implies a chart: a new stock has none until its history is written, and keeps
+        // none until a later sync when that fails (STALE), see Contract.Quote.
+        if (pendingQuoteCVs.isEmpty() || !writer.writeQuotes(pendingQuoteCVs))
+            historyTasks.clear();
+        return historyTasks;
+    }
+
+    /**
+     * Hands a finished history request to the writer. A failed one leaves its stock with the
+     * history it had.
+     *
+     * @param historySymbols The stock behind each request still awaited
+     */
+    private static void addHistory(SyncWriter writer,
+                                   Map<Future<ContentValues>, String> historySymbols,
+                                   Future<ContentValues> history) throws InterruptedException {
+        final String symbol = historySymbols.remove(history);
+        // Timed out and given up on already.
+        if (symbol == null)
+            return;
+
+        try {
+            writer.addHistory(symbol, history.get());
+        } catch (ExecutionException e) {
+            Log.w(TAG, "History request failed for " + symbol, e.getCause());
+        } catch (CancellationException e) {
+            Log.w(TAG, "History request cancelled for " + symbol);
+        }
+    }
+
+    /**
+     * @return The symbols that have a quote stored.
+     */
+    private static Set<String> getStoredQuotes(Context context) {
+        Set<String> stored = new HashSet<>();
+        Cursor cursor = context.getContentResolver().query(Contract.Quote.uri,
+                new String[]{Contract.Quote.COLUMN_SYMBOL}, null, null, null);
+        if (cursor == null)
+            return stored;
 
-                // Store all that data in the content provider
-                ContentValues quoteCV = new ContentValues();
-                quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
-                quoteCV.put(Contract.Quote.COLUMN_PRICE, price);
-                quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, percentChange);
-                quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
-                quoteCV.put(Contract.Quote.COLUMN_HISTORY, historyBuilder.toString());
-                quoteCVs.add(quoteCV);
-            } catch (IOException e) {
-                e.printStackTrace();
+        try {
+            while (cursor.moveToNext()) {
+                stored.add(cursor.getString(0));
             }
+        } finally {
+            cursor.close();
         }
+        return stored;
+    }
 
-        context.getContentResolver()
-                .bulkInsert(
-                        Contract.Quote.uri,
-                        quoteCVs.toArray(new ContentValues[quoteCVs.size()]));
-        updateWidget(context);
+    /**
+     * Reads the timestamp of the newest stored bar for each symbol.
+     *
+     * @param context Application context
+     * @return Newest bar timestamp keyed by symbol. Symbols without history are absent.
+     */
+    private static Map<String, Long> getLatestHistory(Context context) {
+        Map<String, Long> latest = new HashMap<>();
+        Cursor cursor = context.getContentResolver().query(
+                Contract.History.latestUri, null, null, null, null);
+        if (cursor == null)
+            return latest;
+
+        try {
+            while (cursor.moveToNext()) {
+                latest.put(cursor.getString(Contract.History.POSITION_LATEST_SYMBOL),
+                        cursor.getLong(Contract.History.POSITION_LATEST_TIMESTAMP));
+            }
+        } finally {
+            cursor.close();
+        }
+        return latest;
     }
 
     public static void updateWidget(Context context) {
@@ -178,6 +522,52 @@ public final class QuoteSyncJob {
         context.sendBroadcast(dataUpdatedIntent);
     }
 
+    /**
+     * Fetches the history of one stock and packs it for the provider.
+     */
+    private static final class HistoryTask implements Callable<ContentValues> {
+
+        private final QuoteSource mSource;
+        private final SyncMetrics mMetrics;
+        private final String mSymbol;
+        private final long mFrom;
+        private final long mTo;
+
+        HistoryTask(QuoteSource source, SyncMetrics metrics, String symbol, long from, long to) {
+            this.mSource = source;
+            this.mMetrics = metrics;
+            this.mSymbol = symbol;
+            this.mFrom = from;
+            this.mTo = to;
+        }
+
+        String getSymbol() {
+            return mSymbol;
+        }
+
+        @Override
+        public ContentValues call() throws IOException {
+            long start = SyncMetrics.start();
+            SeriesModel history = null;
+            try {
+                history = mSource.getHistory(mSymbol, mFrom, mTo);
+            } finally {
+                mMetrics.record(Contract.Metric.PHASE_HISTORY, mSymbol, start, 1, -1,
+                        history == null ? 1 : 0);
+            }
+
+            // The whole tail travels to the provider as one packed series.
+            start = SyncMetrics.start();
+            final byte[] packed = SeriesCodec.encode(history);
+            mMetrics.record(Contract.Metric.PHASE_ENCODE, mSymbol, start, 1, packed.length, 0);
+
+            ContentValues historyCV = new ContentValues();
+            historyCV.put(Contract.History.COLUMN_SYMBOL, mSymbol);
+            historyCV.put(Contract.History.COLUMN_SERIES, packed);
+            return historyCV;
+        }
+    }
+
     /**
      * Shows a toast on the UI thread (Main Thread) indicating that the stock does not exist.
      *
@@ -0,0 +1,17 @@
+package com.mozartalouis.stockhawk.sync;
+
+/**
+ * What a sync did for one stock. Each stock gets one, whatever happened to the others.
+ */
+enum SymbolStatus {
+    // Quote and history written.
+    OK,
+    // The source says the stock does not exist, now or recently, see UnknownSymbols.
+    UNKNOWN,
+    // The requests failed or were abandoned, or the source has no quote for a stock that had
+    // one. Nothing was written, the stored data stays.
+    TRANSIENT_ERROR,
+    // The quote was written, but the history could not be brought up to date. A new stock
+    // shows without a chart until a later sync fills it in.
+    STALE
+}
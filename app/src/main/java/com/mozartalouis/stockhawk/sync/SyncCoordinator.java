@@ -0,0 +1,163 @@
+package com.mozartalouis.stockhawk.sync;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Makes sure at most one full sync runs at a time, whatever asked for it. A request waits a
+ * short debounce window before its job starts, and every request arriving in the meantime, or
+ * while a sync is running, joins the one waiting request. So a burst of refreshes costs at most
+ * the sync in progress plus one follow-up.
+ * <p>
+ * Syncs of single stocks follow the same rules among themselves, but run alongside full syncs
+ * rather than after them, so a stock just added does not wait for the whole watchlist.
+ */
+final class SyncCoordinator {
+
+    private static final Object sLock = new Object();
+
+    // The request the next sync will serve, and the one the sync in progress is serving.
+    private static SyncRequest sPending;
+    private static SyncRequest sRunning;
+
+    // Whether a sync has run in this process, see run.
+    private static boolean sHasRun;
+
+    // Stocks waiting for their own sync and the request they share, and whether such a sync is
+    // in progress.
+    private static final Set<String> sPendingStocks = new LinkedHashSet<>();
+    private static SyncRequest sStocksRequest;
+    private static boolean sStocksRunning;
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * @return The request that will serve this one, possibly shared with earlier requests.
+     */
+    static SyncRequest request(Context context) {
+        synchronized (sLock) {
+            if (sPending != null)
+                return sPending;
+
+            sPending = new SyncRequest();
+            // A running sync picks the request up once it is done, no job needed.
+            if (sRunning == null)
+                QuoteSyncJob.scheduleOneOff(context);
+            return sPending;
+        }
+    }
+
+    /**
+     * Runs the waiting request, then any follow-up that came in while it ran, on the calling
+     * thread. Scheduled syncs always run, serving the waiting request if there is one. A one-off
+     * job only runs when a request is waiting, unless nothing has synced in this process yet:
+     * then the request that scheduled it was lost with an earlier process.
+     *
+     * <p>
+     * When the thread is interrupted the sync is left unfinished, and the request it was serving
+     * goes back to waiting, with a new job to serve it.
+     *
+     * @param oneOff Whether the job was started for a request rather than by the schedule
+     * @return Whether a sync ran to the end, so that the next one can be scheduled from now.
+     */
+    static boolean run(Context context, boolean oneOff) {
+        SyncRequest request;
+        synchronized (sLock) {
+            if (sPending == null && oneOff && sHasRun)
+                return false;
+
+            request = sPending != null ? sPending : new SyncRequest();
+            sPending = null;
+            sRunning = request;
+            sHasRun = true;
+        }
+
+        while (request != null) {
+            QuoteSyncJob.getQuotes(context);
+
+            synchronized (sLock) {
+                sRunning = null;
+                if (Thread.interrupted()) {
+                    if (sPending != null)
+                        request.merge(sPending);
+                    sPending = request;
+                    // The stopped job may have been replaced rather than stopped for a retry.
+                    QuoteSyncJob.scheduleOneOff(context);
+                    return false;
+                }
+
+                request.finish();
+                request = sPending;
+                sPending = null;
+                sRunning = request;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param stocks Symbols to sync on their own
+     * @return The request that will serve this one, possibly shared with earlier requests.
+     */
+    static SyncRequest requestStocks(Context context, Collection<String> stocks) {
+        synchronized (sLock) {
+            sPendingStocks.addAll(stocks);
+            if (sStocksRequest != null)
+                return sStocksRequest;
+
+            sStocksRequest = new SyncRequest();
+            if (!sStocksRunning)
+                QuoteSyncJob.scheduleStocks(context);
+            return sStocksRequest;
+        }
+    }
+
+    /**
+     * Syncs the waiting stocks, then any added while they synced, on the calling thread. Stocks
+     * lost with an earlier process are left to the next full sync. An interrupted sync goes
+     * back to waiting, as in {@link #run}.
+     */
+    static void runStocks(Context context) {
+        SyncRequest request;
+        List<String> stocks;
+        synchronized (sLock) {
+            if (sStocksRequest == null)
+                return;
+
+            request = sStocksRequest;
+            stocks = new ArrayList<>(sPendingStocks);
+            sStocksRequest = null;
+            sPendingStocks.clear();
+            sStocksRunning = true;
+        }
+
+        while (request != null) {
+            QuoteSyncJob.getQuotes(context, stocks);
+
+            synchronized (sLock) {
+                sStocksRunning = false;
+                if (Thread.interrupted()) {
+                    if (sStocksRequest != null)
+                        request.merge(sStocksRequest);
+                    sStocksRequest = request;
+                    sPendingStocks.addAll(stocks);
+                    QuoteSyncJob.scheduleStocks(context);
+                    return;
+                }
+
+                request.finish();
+                request = sStocksRequest;
+                stocks = new ArrayList<>(sPendingStocks);
+                sStocksRequest = null;
+                sPendingStocks.clear();
+                sStocksRunning = request != null;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.mozartalouis.stockhawk.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mozartalouis.stockhawk.data.Contract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the phase timings of one sync run from any of its threads, and stores them in one
+ * go once the run is over, see {@link Contract.Metric}.
+ */
+final class SyncMetrics {
+
+    private static final String TAG = SyncMetrics.class.getSimpleName();
+
+    private final long mRun = System.currentTimeMillis();
+    private final long mRunStart = SystemClock.elapsedRealtime();
+    private final List<ContentValues> mRows = new ArrayList<>();
+
+    /**
+     * @return A start time to hand to {@link #record} once the phase is over.
+     */
+    static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records a phase that started at {@code start} and ends now.
+     *
+     * @param phase   One of the {@code Contract.Metric.PHASE_} constants
+     * @param symbol  Stock the phase worked on, or {@code null} for a phase over many
+     * @param start   Value of {@link #start} when the phase began
+     * @param symbols Number of stocks the phase handled
+     * @param bytes   Bytes produced or written, or a negative number when unknown
+     * @param errors  Number of failures
+     */
+    void record(String phase, String symbol, long start, int symbols, long bytes, int errors) {
+        final long end = SystemClock.elapsedRealtime();
+
+        ContentValues row = new ContentValues();
+        row.put(Contract.Metric.COLUMN_RUN, mRun);
+        row.put(Contract.Metric.COLUMN_PHASE, phase);
+        row.put(Contract.Metric.COLUMN_SYMBOL, symbol);
+        row.put(Contract.Metric.COLUMN_STARTED_AT, mRun + (start - mRunStart));
+        row.put(Contract.Metric.COLUMN_DURATION, end - start);
+        row.put(Contract.Metric.COLUMN_SYMBOLS, symbols);
+        if (bytes >= 0)
+            row.put(Contract.Metric.COLUMN_BYTES, bytes);
+        row.put(Contract.Metric.COLUMN_ERRORS, errors);
+
+        synchronized (mRows) {
+            mRows.add(row);
+        }
+    }
+
+    /**
+     * @return The failures recorded so far.
+     */
+    int getErrors() {
+        int errors = 0;
+        synchronized (mRows) {
+            for (ContentValues row : mRows) {
+                errors += row.getAsInteger(Contract.Metric.COLUMN_ERRORS);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Writes the recorded rows to the provider. Losing them is never worth failing a sync over.
+     */
+    void save(Context context) {
+        ContentValues[] rows;
+        synchronized (mRows) {
+            rows = mRows.toArray(new ContentValues[mRows.size()]);
+            mRows.clear();
+        }
+        if (rows.length == 0)
+            return;
+
+        try {
+            context.getContentResolver().bulkInsert(Contract.Metric.uri, rows);
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not save sync metrics", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.mozartalouis.stockhawk.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle on a requested sync. Requests made close together, or while a sync is running, share
+ * one handle, which completes once the sync that serves all of them is done.
+ */
+public final class SyncRequest {
+
+    public interface Listener {
+        /**
+         * Called on the main thread once the sync is done.
+         */
+        void onSyncFinished(SyncRequest request);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final List<Listener> mListeners = new ArrayList<>();
+    // Requests folded into this one, done along with it.
+    private final List<SyncRequest> mMerged = new ArrayList<>();
+
+    SyncRequest() {
+    }
+
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    /**
+     * Calls {@code listener} once the sync is done, right away if it already is.
+     */
+    public void addListener(final Listener listener) {
+        synchronized (mListeners) {
+            if (!isDone()) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSyncFinished(SyncRequest.this);
+            }
+        });
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Blocks until the sync is done. Not to be called on the main thread.
+     *
+     * @return Whether the sync is done, {@code false} if the timeout ran out first.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    /**
+     * Folds another request, with its own listeners, into this one.
+     */
+    synchronized void merge(SyncRequest other) {
+        mMerged.add(other);
+    }
+
+    void finish() {
+        synchronized (this) {
+            for (SyncRequest merged : mMerged) {
+                merged.finish();
+            }
+            mMerged.clear();
+        }
+
+        final List<Listener> listeners;
+        synchronized (mListeners) {
+            mDone.countDown();
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onSyncFinished(SyncRequest.this);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,158 @@
+package com.mozartalouis.stockhawk.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mozartalouis.stockhawk.R;
+import com.mozartalouis.stockhawk.data.Contract;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write stage of a sync. Quotes are written as soon as a chunk of them is in, and histories in
+ * batches of {@code R.integer.sync_write_batch_size} as they arrive, or sooner once the oldest
+ * has waited {@code R.integer.sync_write_max_delay} milliseconds. Each write is a short
+ * transaction of its own, so the list fills in while the rest is still downloading.
+ * <p>
+ * Keeps the status of every stock it writes: {@link SymbolStatus#STALE} once its quote is in,
+ * {@link SymbolStatus#OK} once its history is too. Used from the syncing thread only.
+ */
+final class SyncWriter {
+
+    private static final String TAG = SyncWriter.class.getSimpleName();
+
+    private final Context mContext;
+    private final SyncMetrics mMetrics;
+    private final Map<String, SymbolStatus> mStatuses;
+    private final int mBatchSize;
+    private final long mMaxDelay;
+
+    // Histories waiting for the next batch, keyed by symbol, and since when the oldest waits.
+    private final Map<String, ContentValues> mPending = new LinkedHashMap<>();
+    private long mPendingSince;
+    private boolean mUpdated;
+
+    /**
+     * @param statuses Status per symbol, added to
+     */
+    SyncWriter(Context context, SyncMetrics metrics, Map<String, SymbolStatus> statuses) {
+        final Resources resources = context.getResources();
+        this.mContext = context;
+        this.mMetrics = metrics;
+        this.mStatuses = statuses;
+        this.mBatchSize = resources.getInteger(R.integer.sync_write_batch_size);
+        this.mMaxDelay = resources.getInteger(R.integer.sync_write_max_delay);
+    }
+
+    /**
+     * @return Whether any quote written so far changed.
+     */
+    boolean isUpdated() {
+        return mUpdated;
+    }
+
+    long getMaxDelay() {
+        return mMaxDelay;
+    }
+
+    /**
+     * @return Milliseconds until the waiting histories are due, {@link Long#MAX_VALUE} when none
+     * are waiting.
+     */
+    long getFlushDelay() {
+        if (mPending.isEmpty())
+            return Long.MAX_VALUE;
+        return Math.max(0, mPendingSince + mMaxDelay - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Writes one chunk of quotes in one transaction. Quotes go in as upserts, whose count tells
+     * whether anything moved, and observers hear about the chunk once it is committed.
+     *
+     * @param quoteCVs Quote values keyed by symbol
+     * @return Whether the quotes were written; if not, their stocks are marked
+     * {@link SymbolStatus#TRANSIENT_ERROR}.
+     */
+    boolean writeQuotes(Map<String, ContentValues> quoteCVs) throws InterruptedException {
+        ContentValues[] values = quoteCVs.values().toArray(new ContentValues[quoteCVs.size()]);
+        final int count = insert(Contract.Quote.uri, values, -1);
+        if (count < 0) {
+            for (String symbol : quoteCVs.keySet()) {
+                mStatuses.put(symbol, SymbolStatus.TRANSIENT_ERROR);
+            }
+            return false;
+        }
+
+        mUpdated |= count > 0;
+        for (String symbol : quoteCVs.keySet()) {
+            mStatuses.put(symbol, SymbolStatus.STALE);
+        }
+        return true;
+    }
+
+    /**
+     * Queues the history of a stock, writing the batch once it is full.
+     */
+    void addHistory(String symbol, ContentValues historyCV) throws InterruptedException {
+        if (mPending.isEmpty())
+            mPendingSince = SystemClock.elapsedRealtime();
+        mPending.put(symbol, historyCV);
+        if (mPending.size() >= mBatchSize)
+            flush();
+    }
+
+    /**
+     * Writes the waiting histories if the oldest has waited long enough.
+     */
+    void flushIfDue() throws InterruptedException {
+        if (getFlushDelay() == 0)
+            flush();
+    }
+
+    /**
+     * Writes the waiting histories in one transaction. A batch that fails is dropped, its stocks
+     * keep the history they had.
+     */
+    void flush() throws InterruptedException {
+        if (mPending.isEmpty())
+            return;
+
+        long bytes = 0;
+        for (ContentValues historyCV : mPending.values()) {
+            bytes += historyCV.getAsByteArray(Contract.History.COLUMN_SERIES).length;
+        }
+
+        ContentValues[] values = mPending.values().toArray(new ContentValues[mPending.size()]);
+        if (insert(Contract.History.uri, values, bytes) >= 0) {
+            for (String symbol : mPending.keySet()) {
+                mStatuses.put(symbol, SymbolStatus.OK);
+            }
+        }
+        mPending.clear();
+    }
+
+    /**
+     * @return The number of rows the provider wrote, or {@code -1} if the transaction failed.
+     */
+    private int insert(Uri uri, ContentValues[] values, long bytes) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        final long start = SyncMetrics.start();
+        try {
+            final int count = mContext.getContentResolver().bulkInsert(uri, values);
+            mMetrics.record(Contract.Metric.PHASE_WRITE, null, start, values.length, bytes, 0);
+            return count;
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not write a batch of stocks", e);
+            mMetrics.record(Contract.Metric.PHASE_WRITE, null, start, values.length, bytes, 1);
+            return -1;
+        }
+    }
+}
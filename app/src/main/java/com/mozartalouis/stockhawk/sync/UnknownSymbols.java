@@ -0,0 +1,72 @@
+package com.mozartalouis.stockhawk.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.mozartalouis.stockhawk.R;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Symbols the quote source recently reported as not existing, and which never had a stored
+ * quote, each remembered for {@code R.integer.sync_unknown_symbol_ttl} milliseconds. Syncs skip
+ * them instead of asking again on every run, and the watchlist turns them down without a round
+ * trip.
+ */
+public final class UnknownSymbols {
+
+    private static final String PREFS_NAME = "unknown_symbols";
+
+    private UnknownSymbols() {
+    }
+
+    /**
+     * @return Whether {@code symbol} was reported unknown and its entry has not expired.
+     */
+    public static boolean contains(Context context, String symbol) {
+        return getPrefs(context).getLong(symbol, 0) > System.currentTimeMillis();
+    }
+
+    /**
+     * @return The symbols whose entry has not expired. Expired entries are dropped.
+     */
+    static Set<String> get(Context context) {
+        final SharedPreferences prefs = getPrefs(context);
+        final long now = System.currentTimeMillis();
+
+        Set<String> unknown = new HashSet<>();
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Long && (Long) entry.getValue() > now) {
+                unknown.add(entry.getKey());
+            } else {
+                if (editor == null)
+                    editor = prefs.edit();
+                editor.remove(entry.getKey());
+            }
+        }
+        if (editor != null)
+            editor.apply();
+        return unknown;
+    }
+
+    static void add(Context context, Collection<String> symbols) {
+        if (symbols.isEmpty())
+            return;
+
+        final long expiry = System.currentTimeMillis()
+                + context.getResources().getInteger(R.integer.sync_unknown_symbol_ttl);
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        for (String symbol : symbols) {
+            editor.putLong(symbol, expiry);
+        }
+        editor.apply();
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
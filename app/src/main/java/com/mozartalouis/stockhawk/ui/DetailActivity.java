@@ -1,33 +1,34 @@
 package com.mozartalouis.stockhawk.ui;
 
-import android.database.Cursor;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.view.MotionEvent;
 
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.data.Entry;
 import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
 import com.mozartalouis.stockhawk.R;
 import com.mozartalouis.stockhawk.data.Contract;
-import com.mozartalouis.stockhawk.models.ChartModel;
+import com.mozartalouis.stockhawk.data.SeriesLoader;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+import com.mozartalouis.stockhawk.utils.SeriesUtils;
 
-import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
-import au.com.bytecode.opencsv.CSVReader;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
-public class DetailActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<SeriesModel>,
+        OnChartGestureListener {
 
     // Loader ID
     private static final int LOADER = 100;
@@ -38,10 +39,15 @@ public class DetailActivity extends AppCompatActivity implements LoaderManager.L
     private Uri mStockUri;
 
     /**
-     *
+     * The whole loaded series, at daily resolution. The chart only gets a downsampled copy,
+     * re-taken from this one whenever the zoom changes.
      */
-    private List<ChartModel> mBarChartData = new ArrayList<>();
+    private SeriesModel mSeries;
 
+    /**
+     * Number of points last handed to the chart, to skip redundant redraws.
+     */
+    private int mDrawnPoints;
 
     // XML Views
     @BindView(R.id.detail_toolbar)
@@ -61,6 +67,8 @@ public class DetailActivity extends AppCompatActivity implements LoaderManager.L
         setSupportActionBar(mToolbar);
         if (getSupportActionBar() != null)
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        setUpBarChart();
     }
 
     @Override
@@ -70,51 +78,75 @@ public class DetailActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     /**
-     * {@link LoaderManager.LoaderCallbacks<Cursor> }
+     * {@link LoaderManager.LoaderCallbacks<SeriesModel> }
      */
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    public Loader<SeriesModel> onCreateLoader(int id, Bundle args) {
         if (mStockUri == null)
             return null;
 
-        return new CursorLoader(
-                this,
-                mStockUri,
-                Contract.Quote.QUOTE_COLUMNS,
-                null,
-                null,
-                null
-        );
+        return new SeriesLoader(this, Contract.Quote.getStockFromUri(mStockUri));
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (!data.moveToFirst())
-            return;
+    public void onLoadFinished(Loader<SeriesModel> loader, SeriesModel data) {
+        mSeries = data;
+        mDrawnPoints = 0;
+        // A stock's quote is written before its history, which the loader picks up once it
+        // lands; until then the chart says it is on its way.
+        if (data.size() == 0)
+            mBarChart.clear();
+        else
+            drawBarChart();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<SeriesModel> loader) {
+        mSeries = null;
+    }
+
+    /**
+     * {@link OnChartGestureListener}
+     */
+
+    @Override
+    public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+    }
+
+    @Override
+    public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+        if (lastPerformedGesture == ChartTouchListener.ChartGesture.X_ZOOM
+                || lastPerformedGesture == ChartTouchListener.ChartGesture.PINCH_ZOOM
+                || lastPerformedGesture == ChartTouchListener.ChartGesture.DOUBLE_TAP)
+            drawBarChart();
+    }
+
+    @Override
+    public void onChartLongPressed(MotionEvent me) {
+    }
+
+    @Override
+    public void onChartDoubleTapped(MotionEvent me) {
+    }
+
+    @Override
+    public void onChartSingleTapped(MotionEvent me) {
+    }
 
-        // Load all the history data doe the current cursor.
-        final CSVReader csvReader = new CSVReader(new StringReader(
-                data.getString(Contract.Quote.POSITION_HISTORY)), ',');
-        try {
-            String[] record;
-            while ((record = csvReader.readNext()) != null) {
-                mBarChartData.add(new ChartModel(Float.valueOf(record[0]), Float.valueOf(record[1])));
-            }
-            csvReader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        buildBarChart();
+    @Override
+    public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+    }
 
+    @Override
+    public void onChartTranslate(MotionEvent me, float dX, float dY) {
     }
 
-    private void buildBarChart() {
+    private void setUpBarChart() {
         mBarChart.setBackgroundColor(getResources().getColor(R.color.off_white));
         mBarChart.setDrawGridBackground(false);
         mBarChart.setTouchEnabled(true);
@@ -122,12 +154,34 @@ public class DetailActivity extends AppCompatActivity implements LoaderManager.L
         mBarChart.setScaleEnabled(true);
         mBarChart.setPinchZoom(true);
         mBarChart.getAxisRight().setEnabled(false);
-        mBarChart.setNoDataText("");
-        mBarChart.invalidate();
+        mBarChart.setNoDataText(getString(R.string.detail_history_loading));
+        mBarChart.setOnChartGestureListener(this);
+    }
+
+    /**
+     * Hands the chart about one point per horizontal pixel of the zoomed-in plot, taken from the
+     * full series with {@link SeriesUtils#downsample}. Zooming in raises the count, up to the
+     * full series, so detail comes back as the user looks closer.
+     */
+    private void drawBarChart() {
+        if (mSeries == null)
+            return;
+
+        int width = mBarChart.getWidth();
+        if (width == 0)
+            width = getResources().getDisplayMetrics().widthPixels;
+        final int points = Math.min(mSeries.size(), (int) (width * mBarChart.getScaleX()));
+        if (points == mDrawnPoints)
+            return;
+        mDrawnPoints = points;
+
+        final SeriesModel series = SeriesUtils.downsample(mSeries, points);
+        final long[] timestamps = series.getTimestamps();
+        final float[] closes = series.getCloses();
 
-        List<Entry> barDataList = new ArrayList<>();
-        for (ChartModel data : mBarChartData)
-            barDataList.add(new Entry(data.getHistory(), data.getPrice()));
+        List<Entry> barDataList = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++)
+            barDataList.add(new Entry(timestamps[i], closes[i]));
 
         LineDataSet set = new LineDataSet(barDataList, "Test");
         set.enableDashedLine(10f, 5f, 0f);
@@ -32,7 +32,12 @@ import com.mozartalouis.stockhawk.data.Contract;
 import com.mozartalouis.stockhawk.ui.dialogs.AddStockDialog;
 import com.mozartalouis.stockhawk.utils.PrefUtils;
 import com.mozartalouis.stockhawk.sync.QuoteSyncJob;
+import com.mozartalouis.stockhawk.sync.SyncRequest;
+import com.mozartalouis.stockhawk.sync.UnknownSymbols;
 import com.mozartalouis.stockhawk.utils.NetworkUtils;
+import com.mozartalouis.stockhawk.utils.WatchlistUtils;
+
+import java.util.Collections;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -40,13 +45,19 @@ import butterknife.ButterKnife;
 @SuppressLint("StringFormatInvalid")
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>,
         SwipeRefreshLayout.OnRefreshListener,
-        StockAdapter.StockAdapterOnClickHandler {
+        StockAdapter.StockAdapterOnClickHandler,
+        SyncRequest.Listener {
 
     /**
      * Cursor loader ID
      */
     private static final int STOCK_LOADER = 0;
 
+    /**
+     * Watchlist loader ID
+     */
+    private static final int WATCHLIST_LOADER = 1;
+
     /**
      *
      */
@@ -62,6 +73,17 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
      */
     private BroadcastReceiver mBroadcastReceiver;
 
+    /**
+     * The last sync asked for, which ends the refresh once done.
+     */
+    private SyncRequest mSyncRequest;
+
+    /**
+     * Whether the watchlist was empty when last loaded, {@code null} until it is. Read off the
+     * loader so the status never queries the provider on the main thread.
+     */
+    private Boolean mWatchlistEmpty;
+
     // XML Views
     @BindView(R.id.main_coordinator_layout)
     public CoordinatorLayout mCoordinatorLayout;
@@ -87,8 +109,19 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         if (getSupportActionBar() != null)
             getSupportActionBar().setTitle(R.string.app_name);
 
-        // Setup StockAdapter
+        // Setup StockAdapter; its rows change once a background diff lands, not on setCursor.
         mStockAdapter = new StockAdapter(this, this);
+        mStockAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateStatus();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateStatus();
+            }
+        });
 
         // Setup RecyclerView
         mRecyclerView.setAdapter(mStockAdapter);
@@ -98,7 +131,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         mSwipeRefreshLayout.setOnRefreshListener(this);
 
         if (savedInstanceState == null) {
-            QuoteSyncJob.initialize(this);
+            observeSync(QuoteSyncJob.initialize(this));
             mSwipeRefreshLayout.setRefreshing(true);
         }
 
@@ -123,11 +156,14 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         // Load Cursor
         getSupportLoaderManager().initLoader(STOCK_LOADER, null, this);
+        getSupportLoaderManager().initLoader(WATCHLIST_LOADER, null, this);
     }
 
     @Override
     protected void onDestroy() {
         unregisterReceiver(mBroadcastReceiver);
+        if (mSyncRequest != null)
+            mSyncRequest.removeListener(this);
         super.onDestroy();
     }
 
@@ -144,7 +180,6 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         if (item.getItemId() == R.id.action_change_units) {
             PrefUtils.toggleDisplayMode(this);
             setDisplayModeMenuItemIcon(item);
-            mStockAdapter.notifyDataSetChanged();
             getWindow().getDecorView().findViewById(R.id.action_change_units).announceForAccessibility(
                     String.format(getString(R.string.accessibility_display_mode_change), PrefUtils.getDisplayMode(this))
             );
@@ -157,20 +192,37 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == WATCHLIST_LOADER)
+            return new CursorLoader(this,
+                    Contract.Watchlist.uri,
+                    new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                    null, null, null);
+
         return new CursorLoader(this,
                 Contract.Quote.uri,
-                Contract.Quote.QUOTE_COLUMNS,
+                Contract.Quote.SUMMARY_COLUMNS,
                 null, null, Contract.Quote.COLUMN_SYMBOL);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == WATCHLIST_LOADER) {
+            mWatchlistEmpty = null;
+            return;
+        }
+
         mStockAdapter.setCursor(null);
         updateStatus();
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == WATCHLIST_LOADER) {
+            mWatchlistEmpty = data.getCount() == 0;
+            updateStatus();
+            return;
+        }
+
         mStockAdapter.setCursor(data);
         mSwipeRefreshLayout.setRefreshing(false);
 
@@ -199,7 +251,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @Override
     public void onRefresh() {
         if (NetworkUtils.hasInternetConnection(this)) {
-            QuoteSyncJob.syncImmediately(this);
+            observeSync(QuoteSyncJob.syncImmediately(this));
             mSwipeRefreshLayout.setRefreshing(true);
         } else {
             mSwipeRefreshLayout.setRefreshing(false);
@@ -207,6 +259,23 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
     }
 
+    /**
+     * {@link SyncRequest.Listener}
+     */
+    @Override
+    public void onSyncFinished(SyncRequest request) {
+        // Quotes that did not move leave the loader alone, so the refresh may still be showing.
+        if (request == mSyncRequest)
+            mSwipeRefreshLayout.setRefreshing(false);
+    }
+
+    private void observeSync(SyncRequest request) {
+        if (mSyncRequest != null)
+            mSyncRequest.removeListener(this);
+        mSyncRequest = request;
+        mSyncRequest.addListener(this);
+    }
+
     private void setUpDeletionOnSlide() {
         new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.RIGHT) {
             @Override
@@ -216,17 +285,16 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
             @Override
             public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
-                String symbol = mStockAdapter.getSymbolAtPosition(viewHolder.getAdapterPosition());
+                final int position = viewHolder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION)
+                    return;
 
-                PrefUtils.removeStock(MainActivity.this, symbol);
-                getContentResolver().delete(Contract.Quote.makeUriForStock(symbol), null, null);
+                String symbol = mStockAdapter.getSymbolAtPosition(position);
 
-                mStockAdapter.notifyItemRemoved(viewHolder.getAdapterPosition());
-                getSupportLoaderManager().restartLoader(STOCK_LOADER, null, MainActivity.this);
+                WatchlistUtils.removeStock(MainActivity.this, symbol);
+                getContentResolver().delete(Contract.Quote.makeUriForStock(symbol), null, null);
 
-                if (mStockAdapter.getItemCount() == 0) {
-                    updateStatus();
-                }
+                mStockAdapter.removeAtPosition(position);
             }
         }).attachToRecyclerView(mRecyclerView);
     }
@@ -260,7 +328,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             return;
         }
 
-        if (PrefUtils.getStocks(this).size() == 0) {
+        if (Boolean.TRUE.equals(mWatchlistEmpty)) {
             mErrorTextView.setText(R.string.error_no_stocks);
             return;
         }
@@ -272,6 +340,13 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     public void addStock(String symbol) {
         if (symbol != null && !symbol.isEmpty()) {
 
+            // Reported unknown recently, no use asking again.
+            if (UnknownSymbols.contains(this, symbol)) {
+                Toast.makeText(this, getString(R.string.toast_stock_invalid, symbol),
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
+
             if (NetworkUtils.hasInternetConnection(this)) {
                 mSwipeRefreshLayout.setRefreshing(true);
             } else {
@@ -279,8 +354,8 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 Toast.makeText(this, message, Toast.LENGTH_LONG).show();
                 showInternetOffSnackBar();
             }
-            PrefUtils.addStock(this, symbol);
-            QuoteSyncJob.syncImmediately(this);
+            WatchlistUtils.addStock(this, symbol);
+            observeSync(QuoteSyncJob.syncStocks(this, Collections.singletonList(symbol)));
         }
     }
 
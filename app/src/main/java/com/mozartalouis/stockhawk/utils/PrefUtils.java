@@ -6,54 +6,25 @@ import android.preference.PreferenceManager;
 
 import com.mozartalouis.stockhawk.R;
 
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 public final class PrefUtils {
 
-    public static Set<String> getStocks(Context context) {
+    /**
+     * The watchlist as older versions kept it, before it moved to the watchlist table.
+     *
+     * @return The stored stocks, or {@code null} if the app never stored any.
+     */
+    public static Set<String> getLegacyStocks(Context context) {
         final String stocksKey = context.getString(R.string.pref_stocks_key);
         final String initializedKey = context.getString(R.string.pref_stocks_initialized_key);
-        final HashSet<String> defaultStocks = new HashSet<>(Arrays.asList
-                (context.getResources().getStringArray(R.array.default_stocks)));
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        final boolean initialized = prefs.getBoolean(initializedKey, false);
+        if (!prefs.getBoolean(initializedKey, false))
+            return null;
 
-        if (!initialized) {
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putBoolean(initializedKey, true);
-            editor.putStringSet(stocksKey, defaultStocks);
-            editor.apply();
-            return defaultStocks;
-        }
-        return prefs.getStringSet(stocksKey, new HashSet<String>());
-    }
-
-    private static void editStockPref(Context context, String symbol, Boolean add) {
-        final String key = context.getString(R.string.pref_stocks_key);
-        Set<String> stocks = getStocks(context);
-
-        if (add) stocks.add(symbol);
-        else stocks.remove(symbol);
-
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = prefs.edit();
-
-        // Since were saving a new set, it is better to remove then re-save.
-        editor.remove(key);
-        editor.apply();
-        editor.putStringSet(key, stocks);
-        editor.apply();
-    }
-
-    public static void addStock(Context context, String symbol) {
-        editStockPref(context, symbol, true);
-    }
-
-    public static void removeStock(Context context, String symbol) {
-        editStockPref(context, symbol, false);
+        return new HashSet<>(prefs.getStringSet(stocksKey, new HashSet<String>()));
     }
 
     public static String getDisplayMode(Context context) {
@@ -0,0 +1,45 @@
+package com.mozartalouis.stockhawk.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.mozartalouis.stockhawk.data.Contract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class WatchlistUtils {
+
+    private static final String[] SYMBOL_COLUMNS = {Contract.Watchlist.COLUMN_SYMBOL};
+
+    /**
+     * @return The watched stocks in the order they were added.
+     */
+    public static List<String> getStocks(Context context) {
+        List<String> stocks = new ArrayList<>();
+        Cursor cursor = context.getContentResolver()
+                .query(Contract.Watchlist.uri, SYMBOL_COLUMNS, null, null, null);
+        if (cursor == null)
+            return stocks;
+
+        try {
+            while (cursor.moveToNext()) {
+                stocks.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stocks;
+    }
+
+    public static void addStock(Context context, String symbol) {
+        ContentValues values = new ContentValues();
+        values.put(Contract.Watchlist.COLUMN_SYMBOL, symbol);
+        context.getContentResolver().insert(Contract.Watchlist.uri, values);
+    }
+
+    public static void removeStock(Context context, String symbol) {
+        context.getContentResolver().delete(Contract.Watchlist.makeUriForStock(symbol), null, null);
+    }
+}
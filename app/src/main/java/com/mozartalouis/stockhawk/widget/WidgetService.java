@@ -1,6 +1,5 @@
 package com.mozartalouis.stockhawk.widget;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.database.Cursor;
 import android.os.Binder;
@@ -16,6 +15,19 @@ import java.text.NumberFormat;
 import java.util.Locale;
 
 public class WidgetService extends RemoteViewsService {
+
+    // Only what a widget row shows.
+    private static final String[] PROJECTION = {
+            Contract.Quote._ID,
+            Contract.Quote.COLUMN_SYMBOL,
+            Contract.Quote.COLUMN_PRICE,
+            Contract.Quote.COLUMN_ABSOLUTE_CHANGE
+    };
+    private static final int POSITION_ID = 0;
+    private static final int POSITION_SYMBOL = 1;
+    private static final int POSITION_PRICE = 2;
+    private static final int POSITION_ABSOLUTE_CHANGE = 3;
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new ListRemoteViewFactory();
@@ -23,68 +35,97 @@ public class WidgetService extends RemoteViewsService {
 
     private class ListRemoteViewFactory implements RemoteViewsService.RemoteViewsFactory {
 
-        private Cursor data = null;
+        private DecimalFormat mDollarFormat, mDollarFormatWithPlus;
+
+        // Snapshot of the quotes taken in onDataSetChanged, one entry per row.
+        private int mCount;
+        private long[] mIds = new long[0];
+        private String[] mSymbols = new String[0];
+        private String[] mPrices = new String[0];
+        private String[] mChanges = new String[0];
+        private int[] mChangeBackgrounds = new int[0];
 
         @Override
         public void onCreate() {
+            mDollarFormat = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
+            mDollarFormat.setMaximumFractionDigits(2);
+            mDollarFormat.setMinimumFractionDigits(2);
+
+            mDollarFormatWithPlus = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
+            mDollarFormatWithPlus.setPositivePrefix("+");
+            mDollarFormatWithPlus.setMaximumFractionDigits(2);
+            mDollarFormatWithPlus.setMinimumFractionDigits(2);
         }
 
         @Override
         public void onDestroy() {
-            if (data != null) {
-                data.close();
-                data = null;
-            }
+            mCount = 0;
         }
 
         @Override
         public void onDataSetChanged() {
-            if (data != null) data.close();
             final long identityToken = Binder.clearCallingIdentity();
-            data = getContentResolver().query(Contract.Quote.uri,
-                    Contract.Quote.QUOTE_COLUMNS,
+            final Cursor data = getContentResolver().query(Contract.Quote.uri,
+                    PROJECTION,
                     null,
                     null,
                     Contract.Quote.COLUMN_SYMBOL);
             Binder.restoreCallingIdentity(identityToken);
+
+            if (data == null) {
+                mCount = 0;
+                return;
+            }
+
+            try {
+                final int count = data.getCount();
+                final long[] ids = new long[count];
+                final String[] symbols = new String[count];
+                final String[] prices = new String[count];
+                final String[] changes = new String[count];
+                final int[] changeBackgrounds = new int[count];
+
+                for (int i = 0; data.moveToPosition(i); i++) {
+                    final float absoluteChange = data.getFloat(POSITION_ABSOLUTE_CHANGE);
+
+                    ids[i] = data.getLong(POSITION_ID);
+                    symbols[i] = data.getString(POSITION_SYMBOL);
+                    prices[i] = mDollarFormat.format(data.getFloat(POSITION_PRICE));
+                    changes[i] = mDollarFormatWithPlus.format(absoluteChange);
+                    changeBackgrounds[i] = absoluteChange >= 0
+                            ? R.drawable.percent_change_pill_green
+                            : R.drawable.percent_change_pill_red;
+                }
+
+                mIds = ids;
+                mSymbols = symbols;
+                mPrices = prices;
+                mChanges = changes;
+                mChangeBackgrounds = changeBackgrounds;
+                mCount = count;
+            } finally {
+                data.close();
+            }
         }
 
         @Override
         public int getCount() {
-            return data == null ? 0 : data.getCount();
+            return mCount;
         }
 
-        @SuppressLint("PrivateResource")
         @Override
         public RemoteViews getViewAt(int position) {
-            if (position == AdapterView.INVALID_POSITION || data == null ||
-                    !data.moveToPosition(position))
+            if (position == AdapterView.INVALID_POSITION || position >= mCount)
                 return null;
 
-            // Initialize all vars for widget display
-            final String stockSymbol = data.getString(Contract.Quote.POSITION_SYMBOL);
-            final Float absoluteChange = data.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE);
-
-            final DecimalFormat dollarFormat = (DecimalFormat)
-                    NumberFormat.getCurrencyInstance(Locale.US);
-            dollarFormat.setMaximumFractionDigits(2);
-            dollarFormat.setMinimumFractionDigits(2);
-
-            final DecimalFormat dollarFormatWithPlus = (DecimalFormat)
-                    NumberFormat.getCurrencyInstance(Locale.US);
-            dollarFormatWithPlus.setPositivePrefix("+");
-            dollarFormatWithPlus.setMaximumFractionDigits(2);
-            dollarFormatWithPlus.setMinimumFractionDigits(2);
-
             // Initialize remote view.
             RemoteViews remoteViews = new RemoteViews(getPackageName(),
                     R.layout.widget_item_stock_quote);
-            remoteViews.setTextViewText(R.id.widget_symbol, stockSymbol);
-            remoteViews.setTextViewText(R.id.widget_price, dollarFormat.format
-                    (data.getFloat(Contract.Quote.POSITION_PRICE)));
-            remoteViews.setTextViewText(R.id.widget_change, dollarFormatWithPlus.format(absoluteChange));
-            remoteViews.setInt(R.id.widget_change, "setBackgroundResource", absoluteChange >= 0 ?
-                    R.drawable.percent_change_pill_green : R.drawable.percent_change_pill_red);
+            remoteViews.setTextViewText(R.id.widget_symbol, mSymbols[position]);
+            remoteViews.setTextViewText(R.id.widget_price, mPrices[position]);
+            remoteViews.setTextViewText(R.id.widget_change, mChanges[position]);
+            remoteViews.setInt(R.id.widget_change, "setBackgroundResource",
+                    mChangeBackgrounds[position]);
 
             //TODO Create an intent for the given item to open up the StockDetailActivity
 
@@ -103,7 +144,7 @@ public class WidgetService extends RemoteViewsService {
 
         @Override
         public long getItemId(int i) {
-            return data.moveToPosition(i) ? data.getLong(Contract.Quote.POSITION_ID) : i;
+            return i < mCount ? mIds[i] : i;
         }
 
         @Override
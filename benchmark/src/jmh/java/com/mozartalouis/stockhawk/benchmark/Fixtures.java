@@ -0,0 +1,59 @@
+package com.mozartalouis.stockhawk.benchmark;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs shaped like the app's real data, generated from a fixed seed so every run and every
+ * commit measures the same thing.
+ */
+final class Fixtures {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    // 2012-01-03, a trading day, at 00:00 UTC.
+    private static final long FIRST_BAR = 1325548800000L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * A random walk of daily closes on weekdays, as stored per stock.
+     *
+     * @param bars Number of bars, about 252 per year
+     */
+    static SeriesModel dailySeries(int bars, long seed) {
+        final Random random = new Random(seed);
+        final long[] timestamps = new long[bars];
+        final float[] closes = new float[bars];
+
+        long day = FIRST_BAR;
+        float close = 20 + random.nextFloat() * 200;
+        for (int i = 0; i < bars; i++) {
+            timestamps[i] = day;
+            closes[i] = Math.round(close * 100) / 100f;
+
+            close = Math.max(1, close * (1 + (float) random.nextGaussian() * 0.02f));
+            // Mondays follow Fridays; 2012-01-03 is a Tuesday, so every fifth bar skips a weekend.
+            day += (i % 5 == 3) ? 3 * DAY : DAY;
+        }
+        return new SeriesModel(timestamps, closes);
+    }
+
+    /**
+     * Quotes for a watchlist of the given size, rising and falling.
+     */
+    static List<QuoteModel> quotes(int count, long seed) {
+        final Random random = new Random(seed);
+        final List<QuoteModel> quotes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final float price = 1 + random.nextFloat() * 1000;
+            final float percentage = (float) random.nextGaussian() * 2;
+            quotes.add(new QuoteModel("S" + i, price, price * percentage / 100, percentage));
+        }
+        return quotes;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mozartalouis.stockhawk.benchmark;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.utils.QuoteFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text the stock list formats for each changed row of a new snapshot: price, both changes
+ * and their descriptions, for the whole watchlist as on the first load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QuoteFormatterBenchmark {
+
+    @Param({"20", "300"})
+    public int stocks;
+
+    private List<QuoteModel> mQuotes;
+    private QuoteFormatter mFormatter;
+
+    @Setup
+    public void setUp() {
+        mQuotes = Fixtures.quotes(stocks, 42);
+        // Same templates as the English accessibility strings.
+        mFormatter = new QuoteFormatter(Locale.US,
+                "Stock price %s",
+                "Stock value increased by %s",
+                "Stock value decreased by %s");
+    }
+
+    @Benchmark
+    public void formatRows(Blackhole blackhole) {
+        for (QuoteModel quote : mQuotes) {
+            final String price = mFormatter.formatPrice(quote);
+            final String absolute = mFormatter.formatAbsoluteChange(quote);
+            final String percentage = mFormatter.formatPercentageChange(quote);
+
+            blackhole.consume(mFormatter.describePrice(price));
+            blackhole.consume(mFormatter.describeChange(quote, absolute));
+            blackhole.consume(mFormatter.describeChange(quote, percentage));
+        }
+    }
+}
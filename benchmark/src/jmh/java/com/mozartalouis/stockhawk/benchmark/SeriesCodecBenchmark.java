@@ -0,0 +1,48 @@
+package com.mozartalouis.stockhawk.benchmark;
+
+import com.mozartalouis.stockhawk.data.SeriesCodec;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing a stock's history for the provider, done once per stock by every sync, and unpacking
+ * it, done by every series query of the detail chart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SeriesCodecBenchmark {
+
+    // A few days of tail, one year, and the full five year backfill.
+    @Param({"5", "252", "1260"})
+    public int bars;
+
+    private SeriesModel mSeries;
+    private byte[] mPacked;
+
+    @Setup
+    public void setUp() {
+        mSeries = Fixtures.dailySeries(bars, 42);
+        mPacked = SeriesCodec.encode(mSeries);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return SeriesCodec.encode(mSeries);
+    }
+
+    @Benchmark
+    public SeriesModel decode() {
+        return SeriesCodec.decode(mPacked);
+    }
+}
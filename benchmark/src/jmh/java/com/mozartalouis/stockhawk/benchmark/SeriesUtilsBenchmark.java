@@ -0,0 +1,46 @@
+package com.mozartalouis.stockhawk.benchmark;
+
+import com.mozartalouis.stockhawk.models.SeriesModel;
+import com.mozartalouis.stockhawk.utils.SeriesUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The series math on five years of daily bars: the weekly and monthly rollups rebuilt when
+ * history is written, and the downsampling to screen width done by every chart draw.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SeriesUtilsBenchmark {
+
+    private SeriesModel mDaily;
+
+    @Setup
+    public void setUp() {
+        mDaily = Fixtures.dailySeries(1260, 42);
+    }
+
+    @Benchmark
+    public SeriesModel rollUpWeekly() {
+        return SeriesUtils.rollUp(mDaily, SeriesUtils.WEEK);
+    }
+
+    @Benchmark
+    public SeriesModel rollUpMonthly() {
+        return SeriesUtils.rollUp(mDaily, SeriesUtils.MONTH);
+    }
+
+    @Benchmark
+    public SeriesModel downsampleToScreen() {
+        return SeriesUtils.downsample(mDaily, 1080);
+    }
+}
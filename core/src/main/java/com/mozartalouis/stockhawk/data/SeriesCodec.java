@@ -0,0 +1,120 @@
+package com.mozartalouis.stockhawk.data;
+
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary encoding for a price series, used wherever a whole series crosses the provider
+ * boundary instead of one row per bar.
+ * <p>
+ * Layout (little endian):
+ * <pre>
+ *   byte      version
+ *   int32     count
+ *   float32[] closes, count entries
+ *   int64     first timestamp (millis)
+ *   varint[]  zig-zag timestamp deltas, count - 1 entries
+ * </pre>
+ * The closes sit in one fixed-width block so they decode with a single bulk copy. Timestamps
+ * are evenly spaced in practice, so their deltas take a few bytes each.
+ */
+public final class SeriesCodec {
+
+    static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 1 + 4;
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private SeriesCodec() {
+    }
+
+    public static byte[] encode(SeriesModel series) {
+        return encode(series.getTimestamps(), series.getCloses(), series.size());
+    }
+
+    /**
+     * @param timestamps Bar timestamps, best kept in order so the deltas stay small
+     * @param closes     Bar closes, parallel to {@code timestamps}
+     * @param count      Number of leading entries of both arrays to encode
+     */
+    public static byte[] encode(long[] timestamps, float[] closes, int count) {
+        ByteBuffer buffer = ByteBuffer
+                .allocate(HEADER_SIZE + count * 4 + 8 + Math.max(count - 1, 0) * MAX_VARINT_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.put(VERSION);
+        buffer.putInt(count);
+        buffer.asFloatBuffer().put(closes, 0, count);
+        buffer.position(buffer.position() + count * 4);
+
+        if (count > 0) {
+            buffer.putLong(timestamps[0]);
+            for (int i = 1; i < count; i++) {
+                putVarLong(buffer, zigZag(timestamps[i] - timestamps[i - 1]));
+            }
+        }
+
+        byte[] blob = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, blob, 0, blob.length);
+        return blob;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the blob was written by an unknown format version.
+     */
+    public static SeriesModel decode(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+
+        final byte version = buffer.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unknown series version: " + version);
+
+        final int count = buffer.getInt();
+        final long[] timestamps = new long[count];
+        final float[] closes = new float[count];
+
+        buffer.asFloatBuffer().get(closes);
+        buffer.position(buffer.position() + count * 4);
+
+        if (count > 0) {
+            long timestamp = buffer.getLong();
+            timestamps[0] = timestamp;
+            for (int i = 1; i < count; i++) {
+                timestamp += unZigZag(getVarLong(buffer));
+                timestamps[i] = timestamp;
+            }
+        }
+
+        return new SeriesModel(timestamps, closes);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,35 @@
+package com.mozartalouis.stockhawk.models;
+
+/**
+ * The live quote of a single stock.
+ */
+public class QuoteModel {
+    private final String mSymbol;
+    private final float mPrice;
+    private final float mAbsoluteChange;
+    private final float mPercentageChange;
+
+    public QuoteModel(final String symbol, final float price, final float absoluteChange,
+                      final float percentageChange) {
+        this.mSymbol = symbol;
+        this.mPrice = price;
+        this.mAbsoluteChange = absoluteChange;
+        this.mPercentageChange = percentageChange;
+    }
+
+    public String getSymbol() {
+        return mSymbol;
+    }
+
+    public float getPrice() {
+        return mPrice;
+    }
+
+    public float getAbsoluteChange() {
+        return mAbsoluteChange;
+    }
+
+    public float getPercentageChange() {
+        return mPercentageChange;
+    }
+}
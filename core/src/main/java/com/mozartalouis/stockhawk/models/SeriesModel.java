@@ -0,0 +1,29 @@
+package com.mozartalouis.stockhawk.models;
+
+/**
+ * A price series held as two parallel primitive arrays, oldest point first.
+ */
+public class SeriesModel {
+    private final long[] mTimestamps;
+    private final float[] mCloses;
+
+    public SeriesModel(final long[] timestamps, final float[] closes) {
+        if (timestamps.length != closes.length)
+            throw new IllegalArgumentException("Timestamps and closes differ in length");
+
+        this.mTimestamps = timestamps;
+        this.mCloses = closes;
+    }
+
+    public int size() {
+        return mTimestamps.length;
+    }
+
+    public long[] getTimestamps() {
+        return mTimestamps;
+    }
+
+    public float[] getCloses() {
+        return mCloses;
+    }
+}
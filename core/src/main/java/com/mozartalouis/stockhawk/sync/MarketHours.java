@@ -0,0 +1,215 @@
+package com.mozartalouis.stockhawk.sync;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Trading sessions of an exchange: which one is in progress at a given time and when it ends.
+ * Session bounds are minutes past local midnight; weekends and the exchange's holidays are
+ * closed all day.
+ */
+public final class MarketHours {
+
+    public enum Session {
+        CLOSED,
+        PRE_MARKET,
+        REGULAR,
+        AFTER_HOURS
+    }
+
+    /**
+     * New York Stock Exchange: pre-market from 4:00, regular hours 9:30 to 16:00 (13:00 on early
+     * close days), after-hours until four hours past the close, Eastern time.
+     */
+    public static final MarketHours NYSE = new MarketHours(
+            TimeZone.getTimeZone("America/New_York"), 4 * 60, 9 * 60 + 30, 16 * 60, 13 * 60, 4 * 60);
+
+    // Bound on the days to look ahead for the next session, longer than any run of closed days.
+    private static final int MAX_CLOSED_DAYS = 10;
+
+    private final TimeZone mTimeZone;
+    private final int mPreMarketOpen;
+    private final int mOpen;
+    private final int mClose;
+    private final int mEarlyClose;
+    private final int mAfterHoursLength;
+
+    private MarketHours(TimeZone timeZone, int preMarketOpen, int open, int close, int earlyClose,
+                        int afterHoursLength) {
+        this.mTimeZone = timeZone;
+        this.mPreMarketOpen = preMarketOpen;
+        this.mOpen = open;
+        this.mClose = close;
+        this.mEarlyClose = earlyClose;
+        this.mAfterHoursLength = afterHoursLength;
+    }
+
+    /**
+     * @param time Epoch millis
+     */
+    public Session getSession(long time) {
+        final Calendar calendar = getCalendar(time);
+        final int[] bounds = getBounds(calendar);
+        if (bounds == null)
+            return Session.CLOSED;
+
+        final int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        if (minute < bounds[0])
+            return Session.CLOSED;
+        if (minute < bounds[1])
+            return Session.PRE_MARKET;
+        if (minute < bounds[2])
+            return Session.REGULAR;
+        if (minute < bounds[3])
+            return Session.AFTER_HOURS;
+        return Session.CLOSED;
+    }
+
+    /**
+     * @param time Epoch millis
+     * @return When the session in progress at {@code time} ends and the next one starts, in
+     * epoch millis. While closed, that is the next pre-market open.
+     */
+    public long getNextChange(long time) {
+        final Calendar calendar = getCalendar(time);
+        for (int day = 0; day <= MAX_CLOSED_DAYS; day++) {
+            final int[] bounds = getBounds(calendar);
+            if (bounds != null) {
+                for (int bound : bounds) {
+                    calendar.set(Calendar.HOUR_OF_DAY, bound / 60);
+                    calendar.set(Calendar.MINUTE, bound % 60);
+                    calendar.set(Calendar.SECOND, 0);
+                    calendar.set(Calendar.MILLISECOND, 0);
+                    if (calendar.getTimeInMillis() > time)
+                        return calendar.getTimeInMillis();
+                }
+            }
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        throw new IllegalStateException("No session within " + MAX_CLOSED_DAYS + " days");
+    }
+
+    private Calendar getCalendar(long time) {
+        Calendar calendar = Calendar.getInstance(mTimeZone);
+        calendar.setTimeInMillis(time);
+        return calendar;
+    }
+
+    /**
+     * @return Pre-market open, open, close and after-hours close of the day, in minutes past
+     * midnight, or {@code null} if the exchange does not trade that day.
+     */
+    private int[] getBounds(Calendar calendar) {
+        final int year = calendar.get(Calendar.YEAR);
+        final int month = calendar.get(Calendar.MONTH);
+        final int day = calendar.get(Calendar.DAY_OF_MONTH);
+        final int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+
+        if (dayOfWeek == Calendar.SATURDAY || dayOfWeek == Calendar.SUNDAY
+                || isHoliday(year, month, day, dayOfWeek))
+            return null;
+
+        final int close = isEarlyClose(month, day, dayOfWeek) ? mEarlyClose : mClose;
+        return new int[]{mPreMarketOpen, mOpen, close, close + mAfterHoursLength};
+    }
+
+    /**
+     * NYSE holidays, with a holiday on a Saturday observed the Friday before and one on a Sunday
+     * the Monday after. New Year's Day is the exception: on a Saturday it is not observed.
+     */
+    private static boolean isHoliday(int year, int month, int day, int dayOfWeek) {
+        final int week = (day - 1) / 7;
+
+        switch (month) {
+            case Calendar.JANUARY:
+                return isObserved(month, day, dayOfWeek, Calendar.JANUARY, 1, false)
+                        // Martin Luther King Jr. Day, third Monday
+                        || (dayOfWeek == Calendar.MONDAY && week == 2);
+            case Calendar.FEBRUARY:
+                // Washington's Birthday, third Monday
+                return dayOfWeek == Calendar.MONDAY && week == 2;
+            case Calendar.MARCH:
+            case Calendar.APRIL:
+                return isGoodFriday(year, month, day);
+            case Calendar.MAY:
+                // Memorial Day, last Monday
+                return dayOfWeek == Calendar.MONDAY && day + 7 > 31;
+            case Calendar.JUNE:
+                // Juneteenth, since 2022
+                return year >= 2022 && isObserved(month, day, dayOfWeek, Calendar.JUNE, 19, true);
+            case Calendar.JULY:
+                return isObserved(month, day, dayOfWeek, Calendar.JULY, 4, true);
+            case Calendar.SEPTEMBER:
+                // Labor Day, first Monday
+                return dayOfWeek == Calendar.MONDAY && week == 0;
+            case Calendar.NOVEMBER:
+                // Thanksgiving, fourth Thursday
+                return dayOfWeek == Calendar.THURSDAY && week == 3;
+            case Calendar.DECEMBER:
+                return isObserved(month, day, dayOfWeek, Calendar.DECEMBER, 25, true);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Regular hours end early on the day after Thanksgiving, on Christmas Eve and on the day
+     * before Independence Day. Only asked about trading days, so an observed holiday on one of
+     * those days has already been ruled out.
+     */
+    private static boolean isEarlyClose(int month, int day, int dayOfWeek) {
+        switch (month) {
+            case Calendar.NOVEMBER:
+                return dayOfWeek == Calendar.FRIDAY && (day - 2) / 7 == 3;
+            case Calendar.DECEMBER:
+                return day == 24;
+            case Calendar.JULY:
+                return day == 3;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Whether the given weekday is the observed date of a fixed-date holiday.
+     */
+    private static boolean isObserved(int month, int day, int dayOfWeek,
+                                      int holidayMonth, int holidayDay, boolean observeSaturday) {
+        if (month != holidayMonth)
+            return false;
+        return day == holidayDay
+                || (observeSaturday && dayOfWeek == Calendar.FRIDAY && day == holidayDay - 1)
+                || (dayOfWeek == Calendar.MONDAY && day == holidayDay + 1);
+    }
+
+    /**
+     * Good Friday, two days before Easter Sunday as given by the anonymous Gregorian algorithm.
+     */
+    private static boolean isGoodFriday(int year, int month, int day) {
+        final int a = year % 19;
+        final int b = year / 100;
+        final int c = year % 100;
+        final int d = b / 4;
+        final int e = b % 4;
+        final int f = (b + 8) / 25;
+        final int g = (b - f + 1) / 3;
+        final int h = (19 * a + b - d - g + 15) % 30;
+        final int i = c / 4;
+        final int k = c % 4;
+        final int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        final int m = (a + 11 * h + 22 * l) / 451;
+        final int easterMonth = (h + l - 7 * m + 114) / 31;
+        final int easterDay = (h + l - 7 * m + 114) % 31 + 1;
+
+        // Easter is in March or April (months 3 and 4); step back two days across the month.
+        int goodFridayMonth = easterMonth;
+        int goodFridayDay = easterDay - 2;
+        if (goodFridayDay < 1) {
+            goodFridayMonth = 3;
+            goodFridayDay += 31;
+        }
+        return month == goodFridayMonth - 1 && day == goodFridayDay;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mozartalouis.stockhawk.sync;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the sync gets its market data from. Implementations must be safe to call from several
+ * threads at once, since quote chunks and histories are fetched in parallel.
+ */
+public interface QuoteSource {
+
+    /**
+     * Fetches the live quotes of a batch of stocks in one request.
+     *
+     * @param symbols Stocks to fetch
+     * @return Quotes keyed by every requested symbol. Symbols the source does not know map to
+     * {@code null}.
+     * @throws IOException If the batch as a whole could not be fetched.
+     */
+    Map<String, QuoteModel> getQuotes(List<String> symbols) throws IOException;
+
+    /**
+     * Fetches the daily closes of one stock. Coarser resolutions are rolled up from these
+     * locally rather than fetched.
+     *
+     * @param symbol Stock to fetch
+     * @param from   Start of the window, epoch millis, inclusive
+     * @param to     End of the window, epoch millis, inclusive
+     * @return The bars in the window, oldest first, each stamped with midnight UTC of its trading
+     * day, see {@link com.mozartalouis.stockhawk.utils.SeriesUtils#getDayStamp}.
+     * @throws IOException If the history could not be fetched.
+     */
+    SeriesModel getHistory(String symbol, long from, long to) throws IOException;
+}
@@ -0,0 +1,89 @@
+package com.mozartalouis.stockhawk.sync;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link QuoteSource} that passes every call through to another source and saves the responses
+ * in the layout {@link ReplayQuoteSource} serves, so a real sync can be captured once and
+ * replayed as often as needed. Histories are merged with what was recorded before.
+ */
+public class RecordingQuoteSource implements QuoteSource {
+
+    private final QuoteSource mSource;
+    private final File mDirectory;
+    private final Map<String, QuoteModel> mQuotes;
+
+    public RecordingQuoteSource(QuoteSource source, File directory) throws IOException {
+        this.mSource = source;
+        this.mDirectory = directory;
+        this.mQuotes = ReplayQuoteSource.readQuotes(new File(directory, ReplayQuoteSource.QUOTES_FILE));
+    }
+
+    @Override
+    public Map<String, QuoteModel> getQuotes(List<String> symbols) throws IOException {
+        Map<String, QuoteModel> quotes = mSource.getQuotes(symbols);
+        synchronized (mQuotes) {
+            for (QuoteModel quote : quotes.values()) {
+                if (quote != null)
+                    mQuotes.put(quote.getSymbol(), quote);
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for (QuoteModel quote : mQuotes.values()) {
+                builder.append(quote.getSymbol()).append(',')
+                        .append(quote.getPrice()).append(',')
+                        .append(quote.getAbsoluteChange()).append(',')
+                        .append(quote.getPercentageChange()).append('\n');
+            }
+            write(new File(mDirectory, ReplayQuoteSource.QUOTES_FILE), builder);
+        }
+        return quotes;
+    }
+
+    @Override
+    public SeriesModel getHistory(String symbol, long from, long to) throws IOException {
+        SeriesModel history = mSource.getHistory(symbol, from, to);
+
+        File file = ReplayQuoteSource.historyFile(mDirectory, symbol);
+        synchronized (this) {
+            TreeMap<Long, Float> bars = new TreeMap<>();
+            SeriesModel recorded = ReplayQuoteSource.readHistory(file);
+            for (int i = 0; i < recorded.size(); i++) {
+                bars.put(recorded.getTimestamps()[i], recorded.getCloses()[i]);
+            }
+            for (int i = 0; i < history.size(); i++) {
+                bars.put(history.getTimestamps()[i], history.getCloses()[i]);
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<Long, Float> bar : bars.entrySet()) {
+                builder.append(bar.getKey()).append(',').append(bar.getValue()).append('\n');
+            }
+            write(file, builder);
+        }
+        return history;
+    }
+
+    private static void write(File file, CharSequence content) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), ReplayQuoteSource.CHARSET);
+        try {
+            writer.append(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
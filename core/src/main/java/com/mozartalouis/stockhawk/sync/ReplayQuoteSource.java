@@ -0,0 +1,165 @@
+package com.mozartalouis.stockhawk.sync;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * {@link QuoteSource} that serves recorded responses from disk, so the sync can be measured and
+ * exercised without a network. Every call waits a fixed latency and fails with a given
+ * probability, both drawn from a seeded generator so a run can be repeated exactly.
+ * <p>
+ * A recording is a directory laid out as written by {@link RecordingQuoteSource}:
+ * <pre>
+ *   quotes.csv            symbol,price,absolute_change,percentage_change
+ *   history/SYMBOL.csv    timestamp,close   (oldest first)
+ * </pre>
+ * Symbols missing from {@code quotes.csv} are reported as unknown, symbols without a history
+ * file have an empty history.
+ */
+public class ReplayQuoteSource implements QuoteSource {
+
+    static final String QUOTES_FILE = "quotes.csv";
+    static final String HISTORY_DIRECTORY = "history";
+    static final String HISTORY_EXTENSION = ".csv";
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final Map<String, QuoteModel> mQuotes;
+    private final long mLatencyMillis;
+    private final double mErrorRate;
+    private final Random mRandom;
+
+    /**
+     * @param directory     Recording to serve
+     * @param latencyMillis Delay added to every call
+     * @param errorRate     Probability, from 0 to 1, that a call fails with an IOException
+     * @param seed          Seed for the error injection
+     * @throws IOException If the recorded quotes could not be read.
+     */
+    public ReplayQuoteSource(File directory, long latencyMillis, double errorRate, long seed)
+            throws IOException {
+        this.mDirectory = directory;
+        this.mQuotes = readQuotes(new File(directory, QUOTES_FILE));
+        this.mLatencyMillis = latencyMillis;
+        this.mErrorRate = errorRate;
+        this.mRandom = new Random(seed);
+    }
+
+    @Override
+    public Map<String, QuoteModel> getQuotes(List<String> symbols) throws IOException {
+        simulateRequest();
+
+        Map<String, QuoteModel> quotes = new LinkedHashMap<>();
+        for (String symbol : symbols) {
+            quotes.put(symbol, mQuotes.get(symbol));
+        }
+        return quotes;
+    }
+
+    @Override
+    public SeriesModel getHistory(String symbol, long from, long to) throws IOException {
+        simulateRequest();
+
+        SeriesModel recorded = readHistory(historyFile(mDirectory, symbol));
+        long[] timestamps = new long[recorded.size()];
+        float[] closes = new float[recorded.size()];
+        int count = 0;
+        for (int i = 0; i < recorded.size(); i++) {
+            final long timestamp = recorded.getTimestamps()[i];
+            if (timestamp < from || timestamp > to)
+                continue;
+            timestamps[count] = timestamp;
+            closes[count] = recorded.getCloses()[i];
+            count++;
+        }
+
+        long[] windowTimestamps = new long[count];
+        float[] windowCloses = new float[count];
+        System.arraycopy(timestamps, 0, windowTimestamps, 0, count);
+        System.arraycopy(closes, 0, windowCloses, 0, count);
+        return new SeriesModel(windowTimestamps, windowCloses);
+    }
+
+    private void simulateRequest() throws IOException {
+        try {
+            Thread.sleep(mLatencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Replayed request interrupted");
+        }
+
+        final double roll;
+        synchronized (mRandom) {
+            roll = mRandom.nextDouble();
+        }
+        if (roll < mErrorRate)
+            throw new IOException("Injected failure");
+    }
+
+    static File historyFile(File directory, String symbol) {
+        return new File(new File(directory, HISTORY_DIRECTORY), symbol + HISTORY_EXTENSION);
+    }
+
+    static Map<String, QuoteModel> readQuotes(File file) throws IOException {
+        Map<String, QuoteModel> quotes = new HashMap<>();
+        for (String[] record : readRecords(file)) {
+            quotes.put(record[0], new QuoteModel(record[0],
+                    Float.parseFloat(record[1]),
+                    Float.parseFloat(record[2]),
+                    Float.parseFloat(record[3])));
+        }
+        return quotes;
+    }
+
+    static SeriesModel readHistory(File file) throws IOException {
+        List<String[]> records = readRecords(file);
+        long[] timestamps = new long[records.size()];
+        float[] closes = new float[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            timestamps[i] = Long.parseLong(records.get(i)[0]);
+            closes[i] = Float.parseFloat(records.get(i)[1]);
+        }
+        return new SeriesModel(timestamps, closes);
+    }
+
+    /**
+     * @return The comma separated fields of every non blank line, or nothing if the file does not
+     * exist.
+     */
+    private static List<String[]> readRecords(File file) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+        } catch (FileNotFoundException e) {
+            return records;
+        }
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty())
+                    records.add(line.split("\\s*,\\s*"));
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+}
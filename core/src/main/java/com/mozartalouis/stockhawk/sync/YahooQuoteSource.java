@@ -0,0 +1,94 @@
+package com.mozartalouis.stockhawk.sync;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+import com.mozartalouis.stockhawk.models.SeriesModel;
+import com.mozartalouis.stockhawk.utils.SeriesUtils;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import yahoofinance.Stock;
+import yahoofinance.YahooFinance;
+import yahoofinance.histquotes.HistoricalQuote;
+import yahoofinance.histquotes.Interval;
+import yahoofinance.quotes.stock.StockQuote;
+
+/**
+ * {@link QuoteSource} backed by the live Yahoo Finance service.
+ */
+public class YahooQuoteSource implements QuoteSource {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Override
+    public Map<String, QuoteModel> getQuotes(List<String> symbols) throws IOException {
+        Map<String, Stock> stocks = YahooFinance.get(symbols.toArray(new String[symbols.size()]));
+        Map<String, QuoteModel> quotes = new LinkedHashMap<>();
+        for (String symbol : symbols) {
+            quotes.put(symbol, toQuote(symbol, stocks.get(symbol)));
+        }
+        return quotes;
+    }
+
+    /**
+     * Yahoo gives each bar as a bare date, which the library parses as midnight in the device's
+     * timezone; the bars are restamped with {@link SeriesUtils#getDayStamp}. The window is passed
+     * as UTC dates to match.
+     */
+    @Override
+    public SeriesModel getHistory(String symbol, long from, long to) throws IOException {
+        Calendar fromCalendar = Calendar.getInstance(UTC);
+        fromCalendar.setTimeInMillis(from);
+        Calendar toCalendar = Calendar.getInstance(UTC);
+        toCalendar.setTimeInMillis(to);
+
+        List<HistoricalQuote> history = new Stock(symbol).getHistory(fromCalendar, toCalendar,
+                Interval.DAILY);
+        long[] timestamps = new long[history.size()];
+        float[] closes = new float[history.size()];
+        int count = 0;
+
+        // Yahoo lists the newest bar first.
+        for (int i = history.size() - 1; i >= 0; i--) {
+            HistoricalQuote it = history.get(i);
+            if (it.getClose() == null)
+                continue;
+            timestamps[count] = SeriesUtils.getDayStamp(it.getDate());
+            closes[count] = it.getClose().floatValue();
+            count++;
+        }
+
+        if (count == history.size())
+            return new SeriesModel(timestamps, closes);
+
+        long[] trimmedTimestamps = new long[count];
+        float[] trimmedCloses = new float[count];
+        System.arraycopy(timestamps, 0, trimmedTimestamps, 0, count);
+        System.arraycopy(closes, 0, trimmedCloses, 0, count);
+        return new SeriesModel(trimmedTimestamps, trimmedCloses);
+    }
+
+    /**
+     * Yahoo answers unknown symbols with a stock whose quote fields are empty.
+     *
+     * @return The quote, or {@code null} if the stock does not exist.
+     */
+    private static QuoteModel toQuote(String symbol, Stock stock) {
+        if (stock == null)
+            return null;
+
+        StockQuote quote = stock.getQuote();
+        if (quote == null || quote.getPrice() == null || quote.getChange() == null
+                || quote.getChangeInPercent() == null)
+            return null;
+
+        return new QuoteModel(symbol,
+                quote.getPrice().floatValue(),
+                quote.getChange().floatValue(),
+                quote.getChangeInPercent().floatValue());
+    }
+}
@@ -0,0 +1,64 @@
+package com.mozartalouis.stockhawk.utils;
+
+import com.mozartalouis.stockhawk.models.QuoteModel;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats quotes for display: the price, the absolute and the percentage change, and their
+ * spoken descriptions. Holds {@link DecimalFormat}s, so an instance is not to be shared between
+ * threads.
+ */
+public final class QuoteFormatter {
+
+    private final DecimalFormat mDollarFormat, mPercentageFormat;
+    private final String mPriceTemplate, mIncrementTemplate, mDecrementTemplate;
+
+    /**
+     * @param priceTemplate     Description of a price, with a {@code %s} for the price
+     * @param incrementTemplate Description of a rise, with a {@code %s} for the change
+     * @param decrementTemplate Description of a fall, with a {@code %s} for the change
+     */
+    public QuoteFormatter(Locale locale, String priceTemplate, String incrementTemplate,
+                          String decrementTemplate) {
+        this.mDollarFormat = (DecimalFormat) NumberFormat.getCurrencyInstance(locale);
+        this.mDollarFormat.setMaximumFractionDigits(2);
+
+        this.mPercentageFormat = (DecimalFormat) NumberFormat.getPercentInstance(locale);
+        this.mPercentageFormat.setMinimumFractionDigits(2);
+
+        this.mPriceTemplate = priceTemplate;
+        this.mIncrementTemplate = incrementTemplate;
+        this.mDecrementTemplate = decrementTemplate;
+    }
+
+    public String formatPrice(QuoteModel quote) {
+        return mDollarFormat.format(quote.getPrice());
+    }
+
+    public String formatAbsoluteChange(QuoteModel quote) {
+        return mDollarFormat.format(quote.getAbsoluteChange());
+    }
+
+    public String formatPercentageChange(QuoteModel quote) {
+        return mPercentageFormat.format(quote.getPercentageChange() / 100);
+    }
+
+    /**
+     * @param price Price as returned by {@link #formatPrice}
+     */
+    public String describePrice(String price) {
+        return String.format(mPriceTemplate, price);
+    }
+
+    /**
+     * @param change Either change of {@code quote}, as formatted by this class
+     */
+    public String describeChange(QuoteModel quote, String change) {
+        return String.format(quote.getAbsoluteChange() >= 0
+                ? mIncrementTemplate
+                : mDecrementTemplate, change);
+    }
+}
@@ -0,0 +1,164 @@
+package com.mozartalouis.stockhawk.utils;
+
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public final class SeriesUtils {
+
+    // Rollup periods, see rollUp.
+    public static final int WEEK = Calendar.WEEK_OF_YEAR;
+    public static final int MONTH = Calendar.MONTH;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private SeriesUtils() {
+    }
+
+    /**
+     * Bars are stamped with midnight UTC of their trading day, the date the exchange gave them,
+     * so that the day, week and month of a bar do not depend on the device's timezone.
+     *
+     * @param date A date, read in the calendar's own timezone
+     * @return Midnight UTC of that date.
+     */
+    public static long getDayStamp(Calendar date) {
+        final Calendar calendar = newCalendar();
+        calendar.clear();
+        calendar.set(date.get(Calendar.YEAR), date.get(Calendar.MONTH),
+                date.get(Calendar.DAY_OF_MONTH));
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @param timestamp Epoch millis
+     * @param period    {@link #WEEK} (starting on Monday) or {@link #MONTH}
+     * @return Midnight UTC of the first day of the period holding {@code timestamp}.
+     */
+    public static long getPeriodStart(long timestamp, int period) {
+        return getPeriodStart(newCalendar(), timestamp, period);
+    }
+
+    /**
+     * Rolls daily bars up into one bar per week or month, stamped with the period's first bar
+     * and closing at its last one. Bars are bucketed by their UTC date, which is their trading
+     * day as long as they were stamped with {@link #getDayStamp}.
+     *
+     * @param daily  Daily bars, oldest first
+     * @param period {@link #WEEK} or {@link #MONTH}
+     */
+    public static SeriesModel rollUp(SeriesModel daily, int period) {
+        final int size = daily.size();
+        final long[] timestamps = daily.getTimestamps();
+        final float[] closes = daily.getCloses();
+        final long[] rolledTimestamps = new long[size];
+        final float[] rolledCloses = new float[size];
+        final Calendar calendar = newCalendar();
+
+        int count = 0;
+        long currentPeriod = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            final long start = getPeriodStart(calendar, timestamps[i], period);
+            if (start != currentPeriod) {
+                currentPeriod = start;
+                rolledTimestamps[count++] = timestamps[i];
+            }
+            rolledCloses[count - 1] = closes[i];
+        }
+
+        final long[] resultTimestamps = new long[count];
+        final float[] resultCloses = new float[count];
+        System.arraycopy(rolledTimestamps, 0, resultTimestamps, 0, count);
+        System.arraycopy(rolledCloses, 0, resultCloses, 0, count);
+        return new SeriesModel(resultTimestamps, resultCloses);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets downsampling: keeps the first and last points, and from each
+     * of {@code threshold - 2} equal buckets in between the point forming the largest triangle
+     * with the point kept before it and the average of the next bucket. Peaks and troughs
+     * survive, so the line looks the same at a fraction of the points.
+     *
+     * @param series    Series to reduce, oldest point first
+     * @param threshold Number of points to keep, e.g. the pixel width the series is drawn at
+     * @return A new series of {@code threshold} points, or {@code series} itself when it is
+     * already small enough.
+     */
+    public static SeriesModel downsample(SeriesModel series, int threshold) {
+        final int size = series.size();
+        if (threshold >= size || threshold < 3)
+            return series;
+
+        final long[] timestamps = series.getTimestamps();
+        final float[] closes = series.getCloses();
+        final long[] sampledTimestamps = new long[threshold];
+        final float[] sampledCloses = new float[threshold];
+
+        // The first and last points are always kept; the rest are split evenly into buckets.
+        final double bucketSize = (double) (size - 2) / (threshold - 2);
+        int kept = 0;
+        int previous = 0;
+
+        sampledTimestamps[kept] = timestamps[0];
+        sampledCloses[kept++] = closes[0];
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket, the third corner of every candidate triangle.
+            final int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            final int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += timestamps[i] - timestamps[previous];
+                averageY += closes[i];
+            }
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+
+            // Timestamps are taken relative to the previous kept point to stay precise as doubles.
+            final double previousY = closes[previous];
+            final int start = (int) (bucket * bucketSize) + 1;
+            final int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double largestArea = -1;
+            int largest = start;
+            for (int i = start; i < end; i++) {
+                final double x = timestamps[i] - timestamps[previous];
+                final double area = Math.abs(
+                        -averageX * (closes[i] - previousY) + x * (averageY - previousY));
+                if (area > largestArea) {
+                    largestArea = area;
+                    largest = i;
+                }
+            }
+
+            sampledTimestamps[kept] = timestamps[largest];
+            sampledCloses[kept++] = closes[largest];
+            previous = largest;
+        }
+
+        sampledTimestamps[kept] = timestamps[size - 1];
+        sampledCloses[kept] = closes[size - 1];
+
+        return new SeriesModel(sampledTimestamps, sampledCloses);
+    }
+
+    private static Calendar newCalendar() {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setFirstDayOfWeek(Calendar.MONDAY);
+        return calendar;
+    }
+
+    private static long getPeriodStart(Calendar calendar, long timestamp, int period) {
+        calendar.setTimeInMillis(timestamp);
+        if (period == MONTH)
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        else
+            calendar.set(Calendar.DAY_OF_WEEK, calendar.getFirstDayOfWeek());
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,95 @@
+package com.mozartalouis.stockhawk.utils;
+
+import com.mozartalouis.stockhawk.models.SeriesModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Rolls up bars as the sync stores them, under device timezones on either side of UTC, which
+ * must not move a bar into another week or month.
+ */
+public class SeriesUtilsTest {
+
+    // Wednesday 2017-03-01, and Friday 2017-03-24 to Monday 2017-04-03, at 00:00 UTC.
+    private static final long MARCH_1 = 1488326400000L;
+    private static final long MARCH_24 = 1490313600000L;
+    private static final long MARCH_27 = 1490572800000L;
+    private static final long MARCH_28 = 1490659200000L;
+    private static final long MARCH_31 = 1490918400000L;
+    private static final long APRIL_3 = 1491177600000L;
+
+    private static final String[] TIME_ZONES = {
+            "Asia/Tokyo", "Europe/Berlin", "UTC", "America/New_York", "Pacific/Kiritimati",
+            "Pacific/Pago_Pago"};
+
+    private TimeZone mDefault;
+
+    @Before
+    public void setUp() {
+        mDefault = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefault);
+    }
+
+    @Test
+    public void getDayStampKeepsTheDate() throws ParseException {
+        for (String timeZone : TIME_ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+            assertEquals(timeZone, MARCH_27, SeriesUtils.getDayStamp(parse("2017-03-27")));
+        }
+    }
+
+    @Test
+    public void rollUpBucketsByTradingDay() throws ParseException {
+        for (String timeZone : TIME_ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+            SeriesModel daily = new SeriesModel(new long[]{
+                    SeriesUtils.getDayStamp(parse("2017-03-24")),
+                    SeriesUtils.getDayStamp(parse("2017-03-27")),
+                    SeriesUtils.getDayStamp(parse("2017-03-28")),
+                    SeriesUtils.getDayStamp(parse("2017-03-31")),
+                    SeriesUtils.getDayStamp(parse("2017-04-03"))},
+                    new float[]{1, 2, 3, 4, 5});
+
+            SeriesModel weekly = SeriesUtils.rollUp(daily, SeriesUtils.WEEK);
+            assertArrayEquals(timeZone, new long[]{MARCH_24, MARCH_27, APRIL_3},
+                    weekly.getTimestamps());
+            assertArrayEquals(timeZone, new float[]{1, 4, 5}, weekly.getCloses(), 0);
+
+            SeriesModel monthly = SeriesUtils.rollUp(daily, SeriesUtils.MONTH);
+            assertArrayEquals(timeZone, new long[]{MARCH_24, APRIL_3}, monthly.getTimestamps());
+            assertArrayEquals(timeZone, new float[]{4, 5}, monthly.getCloses(), 0);
+        }
+    }
+
+    @Test
+    public void getPeriodStart() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+        assertEquals(MARCH_27, SeriesUtils.getPeriodStart(MARCH_31, SeriesUtils.WEEK));
+        assertEquals(MARCH_27, SeriesUtils.getPeriodStart(MARCH_28, SeriesUtils.WEEK));
+        assertEquals(MARCH_1, SeriesUtils.getPeriodStart(MARCH_27, SeriesUtils.MONTH));
+    }
+
+    /**
+     * Parses a date the way the Yahoo Finance library does, as midnight in the default timezone.
+     */
+    private static Calendar parse(String date) throws ParseException {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(date));
+        return calendar;
+    }
+}